@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Creates streaming torrents on a {@link SimulatedSwarm} for the benchmarks
+ */
+final class BenchmarkTorrents {
+
+    private BenchmarkTorrents() {
+    }
+
+    /**
+     * Create a temporary directory for the files of a swarm
+     */
+    static File createSaveDir() throws IOException {
+        File dir = File.createTempFile("torrentstream-benchmark", "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Create a single file swarm without peers, pieces only finish when the benchmark finishes them
+     */
+    static SimulatedSwarm createSwarm(File saveDir, int pieceLength, int pieceCount, boolean writeData) {
+        return new SimulatedSwarm(new VirtualClock(), saveDir, "benchmark.mp4", pieceLength, (long) pieceLength * pieceCount)
+                .setWriteData(writeData);
+    }
+
+    /**
+     * Create a torrent on the swarm and finish the pieces that prepare the stream, so the torrent is streaming
+     */
+    static Torrent startStreaming(SimulatedSwarm swarm) {
+        Torrent torrent = swarm.createTorrent(new TorrentOptions.Builder().build(), null);
+        torrent.startDownload();
+        for (int i = 0; i < torrent.getPiecesToPrepare(); i++) {
+            swarm.finishPiece(i);
+            swarm.finishPiece(swarm.numPieces() - 1 - i);
+        }
+        return torrent;
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.github.se_bastiaan.torrentstream.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of handling a piece finished alert while readers wait for pieces.
+ * <p/>
+ * Every reader thread waits for the piece the alerts are about to finish, the benchmark thread plays the alert thread
+ * and finishes one piece per operation in the {@link SimulatedSwarm}. This includes the piece selection that
+ * {@link Torrent} does after every finished piece.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PieceFinishedBenchmark {
+
+    private static final int PIECE_LENGTH = 16 * 1024;
+    private static final int PIECE_COUNT = 4096;
+
+    @Param({"1", "4", "16"})
+    public int readers;
+
+    private File saveDir;
+    private SimulatedSwarm swarm;
+    private volatile Torrent torrent;
+    private Thread[] readerThreads;
+    private PieceWaitRegistry.Waiter[] waiters;
+    private volatile int nextPiece;
+    private volatile boolean running;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        saveDir = BenchmarkTorrents.createSaveDir();
+        startTorrent();
+        running = true;
+        readerThreads = new Thread[readers];
+        waiters = new PieceWaitRegistry.Waiter[readers];
+        for (int i = 0; i < readers; i++) {
+            final PieceWaitRegistry.Waiter waiter = new PieceWaitRegistry.Waiter();
+            waiters[i] = waiter;
+            readerThreads[i] = new Thread(() -> {
+                while (running) {
+                    // Times out to recover from a wait on a torrent that was replaced
+                    torrent.waitForBytes((long) nextPiece * PIECE_LENGTH, 10, waiter);
+                }
+            }, "TORRENTSTREAM_BENCHMARK_READER_" + i);
+            readerThreads[i].setDaemon(true);
+            readerThreads[i].start();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        running = false;
+        for (int i = 0; i < readers; i++) {
+            waiters[i].cancel();
+            readerThreads[i].join();
+        }
+        swarm.close();
+        FileUtils.recursiveDelete(saveDir);
+    }
+
+    private void startTorrent() {
+        swarm = BenchmarkTorrents.createSwarm(saveDir, PIECE_LENGTH, PIECE_COUNT, false);
+        Torrent torrent = BenchmarkTorrents.startStreaming(swarm);
+        nextPiece = torrent.getPiecesToPrepare();
+        this.torrent = torrent;
+    }
+
+    @Setup(Level.Invocation)
+    public void nextTorrent() {
+        // Start over with a new torrent when all pieces between the prepared pieces are finished
+        if (nextPiece == PIECE_COUNT - torrent.getPiecesToPrepare()) {
+            SimulatedSwarm previousSwarm = swarm;
+            startTorrent();
+            previousSwarm.close();
+        }
+    }
+
+    @Benchmark
+    public void pieceFinished() {
+        int piece = nextPiece;
+        swarm.finishPiece(piece);
+        nextPiece = piece + 1;
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.github.se_bastiaan.torrentstream.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the piece lookups a reader does on every read, and of the piece selection after a read or a seek.
+ * One out of three pieces is downloaded, so the lookups have to scan the bitmap. The piece selection calls into a
+ * {@link SimulatedSwarm} instead of libtorrent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PieceLookupBenchmark {
+
+    private static final int PIECE_LENGTH = 256 * 1024;
+    private static final int PIECE_COUNT = 8192;
+    private static final int READ_SIZE = 64 * 1024;
+
+    private File saveDir;
+    private SimulatedSwarm swarm;
+    private Torrent torrent;
+    private long[] seekPositions;
+    private int seekIndex;
+    private long position;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        saveDir = BenchmarkTorrents.createSaveDir();
+        swarm = BenchmarkTorrents.createSwarm(saveDir, PIECE_LENGTH, PIECE_COUNT, false);
+        torrent = BenchmarkTorrents.startStreaming(swarm);
+        for (int i = 0; i < PIECE_COUNT; i += 3) {
+            swarm.finishPiece(i);
+        }
+
+        Random random = new Random(0);
+        seekPositions = new long[1024];
+        for (int i = 0; i < seekPositions.length; i++) {
+            seekPositions[i] = (long) (random.nextDouble() * torrent.getVideoFileSize());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        swarm.close();
+        FileUtils.recursiveDelete(saveDir);
+    }
+
+    private long nextPosition() {
+        position += READ_SIZE;
+        if (position >= torrent.getVideoFileSize()) {
+            position = 0;
+        }
+        return position;
+    }
+
+    @Benchmark
+    public boolean hasBytes() {
+        return torrent.hasBytes(nextPosition());
+    }
+
+    @Benchmark
+    public long getAvailableBytes() {
+        return torrent.getAvailableBytes(nextPosition(), READ_SIZE);
+    }
+
+    @Benchmark
+    public void setInterestedBytesSequential() {
+        torrent.setInterestedBytes(nextPosition());
+    }
+
+    @Benchmark
+    public void setInterestedBytesSeek() {
+        seekIndex = (seekIndex + 1) & (seekPositions.length - 1);
+        torrent.setInterestedBytes(seekPositions[seekIndex]);
+    }
+
+}
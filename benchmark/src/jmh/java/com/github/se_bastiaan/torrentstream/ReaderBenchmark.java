@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.github.se_bastiaan.torrentstream.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sequential read throughput when all pieces are downloaded, at several buffer sizes.
+ * {@code inputStream} reads through {@link TorrentInputStream}, {@code positionalRead} through
+ * {@link Torrent#read(ByteBuffer, long)}. The {@code bytes} counter reports the throughput in bytes per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReaderBenchmark {
+
+    private static final int PIECE_LENGTH = 256 * 1024;
+    private static final int PIECE_COUNT = 256;
+
+    @Param({"4096", "65536", "1048576"})
+    public int bufferSize;
+
+    private File saveDir;
+    private SimulatedSwarm swarm;
+    private Torrent torrent;
+    private InputStream inputStream;
+    private byte[] array;
+    private ByteBuffer buffer;
+    private long position;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        saveDir = BenchmarkTorrents.createSaveDir();
+        swarm = BenchmarkTorrents.createSwarm(saveDir, PIECE_LENGTH, PIECE_COUNT, true);
+        torrent = BenchmarkTorrents.startStreaming(swarm);
+        swarm.finishAll();
+        inputStream = torrent.getVideoStream();
+        array = new byte[bufferSize];
+        buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        inputStream.close();
+        torrent.closeVideoFile();
+        swarm.close();
+        FileUtils.recursiveDelete(saveDir);
+    }
+
+    @Benchmark
+    public int inputStream(Bytes bytes) throws IOException {
+        int read = inputStream.read(array, 0, array.length);
+        if (read == -1) {
+            inputStream.close();
+            inputStream = torrent.getVideoStream();
+            return 0;
+        }
+        bytes.bytes += read;
+        return read;
+    }
+
+    @Benchmark
+    public int positionalRead(Bytes bytes) throws IOException {
+        buffer.clear();
+        int read = torrent.read(buffer, position);
+        position += read;
+        if (position >= torrent.getVideoFileSize()) {
+            position = 0;
+        }
+        bytes.bytes += read;
+        return read;
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.github.se_bastiaan.torrentstream.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency between a piece finishing and the read that waits for it returning.
+ * <p/>
+ * The benchmark thread waits for a missing piece, an alert thread finishes the piece in the {@link SimulatedSwarm} as soon
+ * as the benchmark thread is parked. {@code stalledRead} includes the time to park and the time the alert thread needs to notice it,
+ * {@code finishedRead} is the same wait for a piece that is finished already and is the baseline to compare with.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WakeupBenchmark {
+
+    private static final int PIECE_LENGTH = 16 * 1024;
+    private static final int PIECE_COUNT = 4096;
+
+    private File saveDir;
+    private volatile SimulatedSwarm swarm;
+    private Torrent torrent;
+    private PieceWaitRegistry.Waiter waiter;
+    private Thread alertThread;
+    private volatile Thread reader;
+    private volatile int pendingPiece = -1;
+    private volatile boolean running;
+    private int nextPiece;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        saveDir = BenchmarkTorrents.createSaveDir();
+        startTorrent();
+        waiter = new PieceWaitRegistry.Waiter();
+        running = true;
+        alertThread = new Thread(() -> {
+            while (running) {
+                int piece = pendingPiece;
+                Thread reader = this.reader;
+                if (piece >= 0 && reader != null && reader.getState() == Thread.State.WAITING) {
+                    pendingPiece = -1;
+                    swarm.finishPiece(piece);
+                }
+            }
+        }, "TORRENTSTREAM_BENCHMARK_ALERTS");
+        alertThread.setDaemon(true);
+        alertThread.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        running = false;
+        waiter.cancel();
+        alertThread.join();
+        swarm.close();
+        FileUtils.recursiveDelete(saveDir);
+    }
+
+    private void startTorrent() {
+        swarm = BenchmarkTorrents.createSwarm(saveDir, PIECE_LENGTH, PIECE_COUNT, false);
+        torrent = BenchmarkTorrents.startStreaming(swarm);
+        nextPiece = torrent.getPiecesToPrepare();
+    }
+
+    @Setup(Level.Invocation)
+    public void nextTorrent() {
+        // Start over with a new torrent when all pieces between the prepared pieces are finished
+        if (nextPiece == PIECE_COUNT - torrent.getPiecesToPrepare()) {
+            SimulatedSwarm previousSwarm = swarm;
+            startTorrent();
+            previousSwarm.close();
+        }
+    }
+
+    @Benchmark
+    public boolean stalledRead() {
+        reader = Thread.currentThread();
+        int piece = nextPiece++;
+        pendingPiece = piece;
+        return torrent.waitForBytes((long) piece * PIECE_LENGTH, 0, waiter);
+    }
+
+    @Benchmark
+    public boolean finishedRead() {
+        int piece = nextPiece++;
+        swarm.finishPiece(piece);
+        return torrent.waitForBytes((long) piece * PIECE_LENGTH, 0, waiter);
+    }
+
+}
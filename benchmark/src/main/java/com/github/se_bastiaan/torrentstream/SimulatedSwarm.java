@@ -0,0 +1,508 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import org.libtorrent4j.Priority;
+import org.libtorrent4j.TorrentHandle;
+
+import com.github.se_bastiaan.torrentstream.listeners.TorrentListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TorrentBackend} that downloads from a simulated swarm instead of the network.
+ * <p/>
+ * Every peer downloads one piece at a time, a piece takes the latency of the peer plus its length divided by the
+ * bandwidth of the peer. Which piece an idle peer picks follows the priorities and, depending on the
+ * {@link DeadlinePolicy}, the deadlines that {@link Torrent} set. Time only moves when the swarm is advanced, it runs on
+ * a {@link VirtualClock} that is also used by the {@link Torrent}, so every run of a scenario has the same outcome.
+ * <p/>
+ * Finished pieces are written to real files in the save path, so the {@link Torrent} can read them like it reads the
+ * files of libtorrent.
+ */
+final class SimulatedSwarm implements TorrentBackend {
+
+    static final int BLOCK_SIZE = 16 * 1024;
+
+    /**
+     * How idle peers pick the next piece
+     */
+    enum DeadlinePolicy {
+        /**
+         * The piece with the earliest deadline first, then the piece with the highest priority, like libtorrent
+         */
+        EARLIEST_DEADLINE_FIRST,
+        /**
+         * The piece with the highest priority first, deadlines are ignored
+         */
+        PRIORITY_ONLY
+    }
+
+    private final VirtualClock clock;
+    private final File savePath;
+    private final String name;
+    private final int pieceLength;
+    private final long[] fileSizes;
+    private final long[] fileOffsets;
+    private final long totalSize;
+    private final int numPieces;
+    private final int[] randomOrder;
+
+    private final Priority[] piecePriorities;
+    private final long[] deadlines;
+    private final BitSet finished;
+    private final BitSet downloading;
+    private final List<Peer> peers = new ArrayList<>();
+    private final RandomAccessFile[] files;
+
+    private DeadlinePolicy deadlinePolicy = DeadlinePolicy.EARLIEST_DEADLINE_FIRST;
+    private boolean writeData = true;
+    private boolean sequential;
+    private boolean paused = true;
+    private volatile Torrent torrent;
+
+    /**
+     * @param clock       {@link VirtualClock} the swarm runs on
+     * @param savePath    Directory the files are written to
+     * @param name        Name of the torrent
+     * @param pieceLength Length of a piece in bytes
+     * @param fileSizes   Sizes of the files in the torrent
+     */
+    SimulatedSwarm(VirtualClock clock, File savePath, String name, int pieceLength, long... fileSizes) {
+        this.clock = clock;
+        this.savePath = savePath;
+        this.name = name;
+        this.pieceLength = pieceLength;
+        this.fileSizes = fileSizes.clone();
+        this.fileOffsets = new long[fileSizes.length];
+        long offset = 0;
+        for (int i = 0; i < fileSizes.length; i++) {
+            fileOffsets[i] = offset;
+            offset += fileSizes[i];
+        }
+        this.totalSize = offset;
+        this.numPieces = (int) ((totalSize + pieceLength - 1) / pieceLength);
+
+        // Pieces are equally rare in the simulated swarm, without sequential download they are picked in a fixed random order
+        this.randomOrder = new int[numPieces];
+        for (int i = 0; i < numPieces; i++) {
+            randomOrder[i] = i;
+        }
+        Random random = new Random(numPieces);
+        for (int i = numPieces - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = randomOrder[i];
+            randomOrder[i] = randomOrder[j];
+            randomOrder[j] = swap;
+        }
+
+        this.piecePriorities = new Priority[numPieces];
+        Arrays.fill(piecePriorities, Priority.DEFAULT);
+        this.deadlines = new long[numPieces];
+        Arrays.fill(deadlines, Long.MAX_VALUE);
+        this.finished = new BitSet(numPieces);
+        this.downloading = new BitSet(numPieces);
+        this.files = new RandomAccessFile[fileSizes.length];
+    }
+
+    /**
+     * Add a peer that has all pieces
+     *
+     * @param bytesPerSecond Bandwidth of the peer
+     * @param latencyMillis  Time between requesting a piece and receiving the first byte
+     * @return This swarm
+     */
+    synchronized SimulatedSwarm addPeer(long bytesPerSecond, long latencyMillis) {
+        peers.add(new Peer(bytesPerSecond, TimeUnit.MILLISECONDS.toNanos(latencyMillis)));
+        return this;
+    }
+
+    synchronized SimulatedSwarm setDeadlinePolicy(DeadlinePolicy deadlinePolicy) {
+        this.deadlinePolicy = deadlinePolicy;
+        return this;
+    }
+
+    /**
+     * @param writeData {@code false} to only mark pieces as finished without writing them to disk
+     * @return This swarm
+     */
+    synchronized SimulatedSwarm setWriteData(boolean writeData) {
+        this.writeData = writeData;
+        return this;
+    }
+
+    /**
+     * Create a {@link Torrent} that is downloaded by this swarm
+     *
+     * @param options  {@link TorrentOptions}
+     * @param listener {@link TorrentListener}, can be {@code null}
+     * @return {@link Torrent}
+     */
+    Torrent createTorrent(TorrentOptions options, TorrentListener listener) {
+        Torrent torrent = new Torrent(this, listener, options, new StreamMetrics.Recorder(clock));
+        this.torrent = torrent;
+        return torrent;
+    }
+
+    VirtualClock getClock() {
+        return clock;
+    }
+
+    int numPieces() {
+        return numPieces;
+    }
+
+    /**
+     * Move the virtual time forward, pieces whose download ends in that time are finished in order
+     *
+     * @param millis Milliseconds to move
+     */
+    void advance(long millis) {
+        long target = clock.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        while (true) {
+            int piece;
+            synchronized (this) {
+                assignIdlePeers();
+
+                Peer next = null;
+                for (Peer peer : peers) {
+                    if (peer.piece != -1 && peer.finishTime <= target && (next == null || peer.finishTime < next.finishTime)) {
+                        next = peer;
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+
+                clock.advanceTo(next.finishTime);
+                piece = next.piece;
+                next.piece = -1;
+                complete(piece);
+            }
+            notifyFinished(piece);
+        }
+        clock.advanceTo(target);
+    }
+
+    /**
+     * Finish a piece right now, regardless of the peers
+     *
+     * @param pieceIndex Index of the piece
+     */
+    void finishPiece(int pieceIndex) {
+        synchronized (this) {
+            if (finished.get(pieceIndex)) {
+                return;
+            }
+            for (Peer peer : peers) {
+                if (peer.piece == pieceIndex) {
+                    peer.piece = -1;
+                }
+            }
+            complete(pieceIndex);
+        }
+        notifyFinished(pieceIndex);
+    }
+
+    /**
+     * Finish all pieces right now
+     */
+    void finishAll() {
+        for (int i = 0; i < numPieces; i++) {
+            finishPiece(i);
+        }
+    }
+
+    /**
+     * Close the files of the torrent
+     */
+    synchronized void close() {
+        for (int i = 0; i < files.length; i++) {
+            if (files[i] != null) {
+                try {
+                    files[i].close();
+                } catch (IOException e) {
+                    // Ignore, the simulation is over
+                }
+                files[i] = null;
+            }
+        }
+    }
+
+    private void assignIdlePeers() {
+        if (paused) {
+            return;
+        }
+
+        for (Peer peer : peers) {
+            if (peer.piece != -1) {
+                continue;
+            }
+
+            int piece = pickPiece();
+            if (piece == -1) {
+                return;
+            }
+
+            downloading.set(piece);
+            peer.piece = piece;
+            long size = Math.min(pieceLength, totalSize - (long) piece * pieceLength);
+            peer.finishTime = clock.nanoTime() + peer.latency + size * TimeUnit.SECONDS.toNanos(1) / peer.bytesPerSecond;
+        }
+    }
+
+    private int pickPiece() {
+        int best = -1;
+        for (int i = 0; i < numPieces; i++) {
+            int piece = sequential ? i : randomOrder[i];
+            if (finished.get(piece) || downloading.get(piece) || piecePriorities[piece] == Priority.IGNORE) {
+                continue;
+            }
+
+            if (best == -1 || isBetter(piece, best)) {
+                best = piece;
+            }
+        }
+        return best;
+    }
+
+    private boolean isBetter(int piece, int than) {
+        if (deadlinePolicy == DeadlinePolicy.EARLIEST_DEADLINE_FIRST && deadlines[piece] != deadlines[than]) {
+            return deadlines[piece] < deadlines[than];
+        }
+        return piecePriorities[piece].swig() > piecePriorities[than].swig();
+    }
+
+    private void complete(int piece) {
+        finished.set(piece);
+        downloading.clear(piece);
+        deadlines[piece] = Long.MAX_VALUE;
+        if (writeData) {
+            writePiece(piece);
+        }
+    }
+
+    private void notifyFinished(int piece) {
+        Torrent torrent = this.torrent;
+        if (torrent == null) {
+            return;
+        }
+
+        long size = Math.min(pieceLength, totalSize - (long) piece * pieceLength);
+        for (long block = 0; block < size; block += BLOCK_SIZE) {
+            torrent.blockFinished(piece);
+        }
+        torrent.pieceFinished(piece);
+    }
+
+    private void writePiece(int piece) {
+        long pieceStart = (long) piece * pieceLength;
+        long pieceEnd = Math.min(totalSize, pieceStart + pieceLength);
+        byte[] data = new byte[(int) (pieceEnd - pieceStart)];
+        Arrays.fill(data, (byte) piece);
+
+        try {
+            for (int i = 0; i < fileSizes.length; i++) {
+                long fileStart = fileOffsets[i];
+                long fileEnd = fileStart + fileSizes[i];
+                long start = Math.max(pieceStart, fileStart);
+                long end = Math.min(pieceEnd, fileEnd);
+                if (start >= end) {
+                    continue;
+                }
+
+                RandomAccessFile file = openFile(i);
+                file.seek(start - fileStart);
+                file.write(data, (int) (start - pieceStart), (int) (end - start));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write piece " + piece, e);
+        }
+    }
+
+    private RandomAccessFile openFile(int fileIndex) throws IOException {
+        if (files[fileIndex] == null) {
+            File file = new File(savePath, filePath(fileIndex));
+            file.getParentFile().mkdirs();
+            files[fileIndex] = new RandomAccessFile(file, "rw");
+            files[fileIndex].setLength(fileSizes[fileIndex]);
+        }
+        return files[fileIndex];
+    }
+
+    @Override
+    public TorrentHandle torrentHandle() {
+        return null;
+    }
+
+    @Override
+    public Clock clock() {
+        return clock;
+    }
+
+    @Override
+    public String infoHash() {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(name.getBytes(Charset.forName("UTF-8")));
+            return String.format("%040x", new BigInteger(1, hash));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public String savePath() {
+        return savePath.getAbsolutePath();
+    }
+
+    @Override
+    public int pieceLength() {
+        return pieceLength;
+    }
+
+    @Override
+    public int numFiles() {
+        return fileSizes.length;
+    }
+
+    @Override
+    public String fileName(int fileIndex) {
+        return fileSizes.length == 1 ? name : "file" + fileIndex;
+    }
+
+    @Override
+    public String filePath(int fileIndex) {
+        return fileSizes.length == 1 ? name : name + "/" + fileName(fileIndex);
+    }
+
+    @Override
+    public long fileSize(int fileIndex) {
+        return fileSizes[fileIndex];
+    }
+
+    @Override
+    public long fileOffset(int fileIndex) {
+        return fileOffsets[fileIndex];
+    }
+
+    @Override
+    public synchronized Priority[] piecePriorities() {
+        return piecePriorities.clone();
+    }
+
+    @Override
+    public synchronized void piecePriority(int pieceIndex, Priority priority) {
+        piecePriorities[pieceIndex] = priority;
+    }
+
+    @Override
+    public synchronized void prioritizePieces(Priority[] priorities) {
+        System.arraycopy(priorities, 0, piecePriorities, 0, Math.min(priorities.length, piecePriorities.length));
+    }
+
+    @Override
+    public synchronized void filePriority(int fileIndex, Priority priority) {
+        if (fileIndex < 0) {
+            return;
+        }
+
+        int firstPiece = (int) (fileOffsets[fileIndex] / pieceLength);
+        int lastPiece = (int) ((fileOffsets[fileIndex] + Math.max(0, fileSizes[fileIndex] - 1)) / pieceLength);
+        for (int i = firstPiece; i <= lastPiece; i++) {
+            piecePriorities[i] = priority;
+        }
+    }
+
+    @Override
+    public synchronized void setPieceDeadline(int pieceIndex, int deadline) {
+        if (!finished.get(pieceIndex)) {
+            deadlines[pieceIndex] = clock.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadline);
+        }
+    }
+
+    @Override
+    public synchronized void resetPieceDeadline(int pieceIndex) {
+        deadlines[pieceIndex] = Long.MAX_VALUE;
+    }
+
+    @Override
+    public synchronized boolean havePiece(int pieceIndex) {
+        return finished.get(pieceIndex);
+    }
+
+    @Override
+    public synchronized void setSequentialDownload() {
+        sequential = true;
+    }
+
+    @Override
+    public int blockSize() {
+        return BLOCK_SIZE;
+    }
+
+    @Override
+    public synchronized Status status() {
+        int downloadRate = 0;
+        for (Peer peer : peers) {
+            if (peer.piece != -1) {
+                downloadRate += peer.bytesPerSecond;
+            }
+        }
+        return new Status((float) finished.cardinality() / numPieces, peers.size(), downloadRate);
+    }
+
+    @Override
+    public synchronized void resume() {
+        paused = false;
+    }
+
+    @Override
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    private static final class Peer {
+
+        final long bytesPerSecond;
+        final long latency;
+        int piece = -1;
+        long finishTime;
+
+        Peer(long bytesPerSecond, long latency) {
+            this.bytesPerSecond = bytesPerSecond;
+            this.latency = latency;
+        }
+    }
+
+}
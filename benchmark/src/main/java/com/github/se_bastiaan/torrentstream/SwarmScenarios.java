@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import com.github.se_bastiaan.torrentstream.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Replays streaming scenarios against a {@link SimulatedSwarm} and prints the results in virtual time.
+ * <p/>
+ * The results only depend on the code of the library and the scenario, not on the machine or the network.
+ * Run with {@code ./gradlew :benchmark:simulate}.
+ */
+public final class SwarmScenarios {
+
+    private static final int PIECE_LENGTH = 256 * 1024;
+    private static final long FILE_SIZE = 100L * 1024 * 1024;
+    private static final long BITRATE = 1024 * 1024;
+    private static final long TICK_MILLIS = 10;
+    private static final long TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+    private final File saveDir;
+
+    private SwarmScenarios(File saveDir) {
+        this.saveDir = saveDir;
+    }
+
+    public static void main(String[] args) throws IOException {
+        File saveDir = new File(System.getProperty("java.io.tmpdir"), "torrentstream-scenarios");
+        SwarmScenarios scenarios = new SwarmScenarios(saveDir);
+
+        System.out.println(String.format(Locale.US, "%-26s %-26s %10s %10s %8s %10s",
+                "scenario", "policy", "ready ms", "seek ms", "stalls", "stall ms"));
+        for (SimulatedSwarm.DeadlinePolicy policy : SimulatedSwarm.DeadlinePolicy.values()) {
+            scenarios.startup(policy);
+            scenarios.prefetched(policy);
+            scenarios.seek(policy);
+            scenarios.stall(policy);
+        }
+
+        FileUtils.recursiveDelete(saveDir);
+    }
+
+    /**
+     * Time until the stream is ready in a healthy swarm
+     */
+    private void startup(SimulatedSwarm.DeadlinePolicy policy) throws IOException {
+        SimulatedSwarm swarm = createSwarm("startup", policy, 8, 300 * 1024, 150);
+        start(swarm);
+        print("startup", policy, swarm.getClock().currentTimeMillis(), -1, null);
+        swarm.close();
+    }
+
+    /**
+     * Time until the stream is ready when the torrent was prefetched while the previous item played
+     */
+    private void prefetched(SimulatedSwarm.DeadlinePolicy policy) throws IOException {
+        SimulatedSwarm swarm = createSwarm("prefetched", policy, 8, 300 * 1024, 150);
+        Torrent.prefetch(swarm, new TorrentOptions.Builder().build().prepareSize);
+        swarm.advance(60 * 1000);
+
+        long startTime = swarm.getClock().currentTimeMillis();
+        start(swarm);
+        print("prefetched", policy, swarm.getClock().currentTimeMillis() - startTime, -1, null);
+        swarm.close();
+    }
+
+    /**
+     * Time until the data at a new position is available after playing for a while and seeking forward
+     */
+    private void seek(SimulatedSwarm.DeadlinePolicy policy) throws IOException {
+        SimulatedSwarm swarm = createSwarm("seek", policy, 8, 300 * 1024, 150);
+        Torrent torrent = start(swarm);
+        long readyTime = swarm.getClock().currentTimeMillis();
+        Player player = new Player(swarm, torrent);
+        player.play(10 * 1000);
+
+        long seekStart = swarm.getClock().currentTimeMillis();
+        player.seek(FILE_SIZE * 6 / 10);
+        while (!torrent.hasBytes(player.position) && swarm.getClock().currentTimeMillis() - seekStart < TIMEOUT_MILLIS) {
+            swarm.advance(TICK_MILLIS);
+        }
+        long seekTime = swarm.getClock().currentTimeMillis() - seekStart;
+
+        player.play(10 * 1000);
+        print("seek", policy, readyTime, seekTime, player);
+        swarm.close();
+    }
+
+    /**
+     * Stalls while playing from a swarm that is barely faster than the bitrate of the video
+     */
+    private void stall(SimulatedSwarm.DeadlinePolicy policy) throws IOException {
+        SimulatedSwarm swarm = createSwarm("stall", policy, 4, 300 * 1024, 400);
+        Torrent torrent = start(swarm);
+        long readyTime = swarm.getClock().currentTimeMillis();
+        Player player = new Player(swarm, torrent);
+        player.play(60 * 1000);
+        print("stall", policy, readyTime, -1, player);
+        swarm.close();
+    }
+
+    private SimulatedSwarm createSwarm(String name, SimulatedSwarm.DeadlinePolicy policy, int peers, long bytesPerSecond,
+                                       long latencyMillis) {
+        SimulatedSwarm swarm = new SimulatedSwarm(new VirtualClock(), new File(saveDir, policy.name()), name + ".mp4",
+                PIECE_LENGTH, FILE_SIZE);
+        swarm.setDeadlinePolicy(policy);
+        for (int i = 0; i < peers; i++) {
+            swarm.addPeer(bytesPerSecond, latencyMillis);
+        }
+        return swarm;
+    }
+
+    /**
+     * Start the download and advance the swarm until the stream is ready, the clock of the swarm starts at 0
+     */
+    private static Torrent start(SimulatedSwarm swarm) {
+        Torrent torrent = swarm.createTorrent(new TorrentOptions.Builder().build(), null);
+        torrent.startDownload();
+        long start = swarm.getClock().currentTimeMillis();
+        while (torrent.getState() != Torrent.State.STREAMING && swarm.getClock().currentTimeMillis() - start < TIMEOUT_MILLIS) {
+            swarm.advance(TICK_MILLIS);
+        }
+        return torrent;
+    }
+
+    private static void print(String scenario, SimulatedSwarm.DeadlinePolicy policy, long readyTime, long seekTime, Player player) {
+        System.out.println(String.format(Locale.US, "%-26s %-26s %10d %10s %8s %10s", scenario, policy, readyTime,
+                seekTime >= 0 ? String.valueOf(seekTime) : "-",
+                player != null ? String.valueOf(player.stalls) : "-",
+                player != null ? String.valueOf(player.stallTime) : "-"));
+    }
+
+    /**
+     * Reads the video at a constant bitrate, in steps of {@link #TICK_MILLIS} of virtual time
+     */
+    private static final class Player {
+
+        private final SimulatedSwarm swarm;
+        private final Torrent torrent;
+        private final ByteBuffer buffer = ByteBuffer.allocate((int) (BITRATE * TICK_MILLIS / 1000));
+        long position;
+        boolean stalled;
+        int stalls;
+        long stallTime;
+
+        Player(SimulatedSwarm swarm, Torrent torrent) {
+            this.swarm = swarm;
+            this.torrent = torrent;
+            torrent.setInterestedBytes(0);
+        }
+
+        void seek(long position) {
+            this.position = position;
+            stalled = false;
+            torrent.setInterestedBytes(position);
+        }
+
+        void play(long millis) throws IOException {
+            for (long time = 0; time < millis && position < FILE_SIZE; time += TICK_MILLIS) {
+                swarm.advance(TICK_MILLIS);
+                buffer.clear();
+                long available = torrent.getAvailableBytes(position, buffer.remaining());
+                if (available < buffer.remaining() && position + available < FILE_SIZE) {
+                    if (!stalled) {
+                        stalled = true;
+                        stalls++;
+                    }
+                    stallTime += TICK_MILLIS;
+                    continue;
+                }
+
+                stalled = false;
+                int read = torrent.read(buffer, position);
+                if (read > 0) {
+                    position += read;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Clock} that only moves when it is advanced, so simulations don't depend on the speed of the machine
+ */
+final class VirtualClock implements Clock {
+
+    private volatile long now;
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    /**
+     * @return Milliseconds since the clock was created
+     */
+    long currentTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(now);
+    }
+
+    /**
+     * Move the clock forward to the specified time, does nothing if the time is in the past
+     *
+     * @param nanoTime Time in nanoseconds
+     */
+    void advanceTo(long nanoTime) {
+        if (nanoTime > now) {
+            now = nanoTime;
+        }
+    }
+
+    /**
+     * Move the clock forward
+     *
+     * @param millis Milliseconds to move
+     */
+    void advance(long millis) {
+        advanceTo(now + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+}
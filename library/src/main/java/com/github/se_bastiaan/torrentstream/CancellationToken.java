@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Signals that the work started for a stream or prefetch is not needed anymore.
+ * <p/>
+ * Work checks {@link #isCanceled()} between its steps, and registers callbacks to abort blocking steps, for example by
+ * interrupting the thread it runs on. A token is canceled once and never reset, work for a new stream gets a new token.
+ */
+final class CancellationToken {
+
+    private final List<Runnable> callbacks = new ArrayList<>();
+    private volatile boolean canceled;
+
+    /**
+     * Cancel the work and run the registered callbacks, does nothing when already canceled
+     */
+    void cancel() {
+        List<Runnable> callbacks;
+        synchronized (this) {
+            if (canceled) {
+                return;
+            }
+            canceled = true;
+            callbacks = new ArrayList<>(this.callbacks);
+            this.callbacks.clear();
+        }
+
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+
+    boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * Register a callback that runs when the token is canceled, right away if it is canceled already
+     *
+     * @param callback {@link Runnable}
+     */
+    void onCancel(Runnable callback) {
+        synchronized (this) {
+            if (!canceled) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+}
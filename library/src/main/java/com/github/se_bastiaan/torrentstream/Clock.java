@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+/**
+ * Source of the monotonic time used to measure rates, deadlines and latencies of a stream
+ */
+interface Clock {
+
+    Clock SYSTEM = System::nanoTime;
+
+    /**
+     * @return Current time in nanoseconds, only meaningful compared to other values of the same clock
+     */
+    long nanoTime();
+
+}
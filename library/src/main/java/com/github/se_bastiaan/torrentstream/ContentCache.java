@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import com.github.se_bastiaan.torrentstream.utils.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the downloaded content of torrents in the save location within a size budget.
+ * <p/>
+ * An index in the cache directory records for every torrent when it was streamed last and how many bytes of it were
+ * downloaded. When the total exceeds the budget, the content and resume data of the least recently streamed torrents
+ * are deleted, torrents that are in use are skipped. Everything runs on one background executor, which also owns the
+ * index, so the streaming threads never wait for disk operations.
+ */
+final class ContentCache {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String INDEX = "index";
+    private static final int DELETE_TRIES = 5;
+    private static final long DELETE_RETRY_DELAY = 1000;
+
+    private final File saveLocation;
+    private final File directory;
+    private final long maxSize;
+    private final ResumeDataStore resumeData;
+    private final ScheduledExecutorService executor;
+
+    // Info-hash to entry, from least to most recently streamed. Only used on the executor.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean loaded;
+
+    /**
+     * @param saveLocation Directory the torrents are downloaded to
+     * @param directory    Directory the index is stored in
+     * @param maxSize      Maximum total size of the content in bytes, {@code 0} to never delete content
+     * @param resumeData   {@link ResumeDataStore} of the torrents
+     * @param executor     {@link ScheduledExecutorService} with a single thread
+     */
+    ContentCache(File saveLocation, File directory, long maxSize, ResumeDataStore resumeData,
+                 ScheduledExecutorService executor) {
+        this.saveLocation = saveLocation;
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.resumeData = resumeData;
+        this.executor = executor;
+    }
+
+    /**
+     * Record that a torrent was streamed and delete the least recently streamed content when over budget
+     *
+     * @param infoHash Hex encoded info-hash
+     * @param name     Name of the torrent, its content is stored under this name in the save location
+     * @param size     Downloaded bytes of the torrent
+     * @param inUse    Info-hashes of the torrents whose content must not be deleted
+     */
+    void access(final String infoHash, final String name, final long size, Collection<String> inUse) {
+        final Set<String> pinned = new HashSet<>(inUse);
+        executor.execute(() -> {
+            load();
+            entries.put(infoHash, new Entry(name, System.currentTimeMillis(), size));
+            trim(pinned);
+            save();
+        });
+    }
+
+    /**
+     * Delete the content of a torrent right away, retrying while something still uses the files
+     *
+     * @param infoHash Hex encoded info-hash
+     * @param content  {@link File} or directory of the content
+     * @param failed   Run when the content could not be deleted, can be {@code null}
+     */
+    void delete(final String infoHash, final File content, final Runnable failed) {
+        executor.execute(() -> {
+            load();
+            if (entries.remove(infoHash) != null) {
+                save();
+            }
+            deleteContent(content, 1, failed);
+        });
+    }
+
+    private void deleteContent(final File content, final int tries, final Runnable failed) {
+        if (!content.exists() || FileUtils.recursiveDelete(content)) {
+            return;
+        }
+
+        if (tries < DELETE_TRIES) {
+            // Something is still using the files, try again later
+            executor.schedule(() -> deleteContent(content, tries + 1, failed), DELETE_RETRY_DELAY, TimeUnit.MILLISECONDS);
+        } else if (failed != null) {
+            failed.run();
+        }
+    }
+
+    private void trim(Set<String> pinned) {
+        if (maxSize <= 0) {
+            return;
+        }
+
+        long size = 0;
+        for (Entry entry : entries.values()) {
+            size += entry.size;
+        }
+
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Entry> next = iterator.next();
+            if (pinned.contains(next.getKey())) {
+                continue;
+            }
+
+            File content = new File(saveLocation, next.getValue().name);
+            if (content.exists() && !FileUtils.recursiveDelete(content)) {
+                // Still in use, it is tried again the next time the cache is trimmed
+                continue;
+            }
+
+            iterator.remove();
+            resumeData.delete(next.getKey());
+            size -= next.getValue().size;
+        }
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        File indexFile = new File(directory, INDEX);
+        if (!indexFile.isFile()) {
+            return;
+        }
+
+        final Map<String, Entry> index = new LinkedHashMap<>();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // <info-hash> <last access> <size> <name>, separated by tabs
+                    String[] fields = line.split("\t", 4);
+                    try {
+                        if (fields.length == 4 && new File(saveLocation, fields[3]).exists()) {
+                            index.put(fields[0], new Entry(fields[3], Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                        }
+                    } catch (NumberFormatException e) {
+                        // Skip the broken line
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            // Content that is not in the index is never deleted
+            return;
+        }
+
+        List<String> infoHashes = new ArrayList<>(index.keySet());
+        Collections.sort(infoHashes, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Long.compare(index.get(a).lastAccess, index.get(b).lastAccess);
+            }
+        });
+        for (String infoHash : infoHashes) {
+            entries.put(infoHash, index.get(infoHash));
+        }
+    }
+
+    private void save() {
+        try {
+            StringBuilder builder = new StringBuilder();
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                builder.append(entry.getKey())
+                        .append('\t')
+                        .append(entry.getValue().lastAccess)
+                        .append('\t')
+                        .append(entry.getValue().size)
+                        .append('\t')
+                        .append(entry.getValue().name)
+                        .append('\n');
+            }
+            FileUtils.writeAtomically(new File(directory, INDEX), builder.toString().getBytes(UTF_8));
+        } catch (IOException e) {
+            // The index is written again the next time a torrent is streamed
+        }
+    }
+
+    private static final class Entry {
+
+        final String name;
+        final long lastAccess;
+        final long size;
+
+        Entry(String name, long lastAccess, long size) {
+            this.name = name;
+            this.lastAccess = lastAccess;
+            this.size = size;
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Immutable snapshot of a latency histogram with fixed buckets.
+ * <p/>
+ * Bucket {@code i} counts the latencies up to and including {@link #getBucketBound(int)} milliseconds that did not fit
+ * in the previous bucket. The last bucket counts everything above the last bound.
+ */
+public final class LatencyHistogram {
+
+    private static final long[] BUCKET_BOUNDS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, Long.MAX_VALUE};
+
+    private final long[] counts;
+    private final long count;
+
+    private LatencyHistogram(long[] counts) {
+        this.counts = counts;
+        long count = 0;
+        for (long bucketCount : counts) {
+            count += bucketCount;
+        }
+        this.count = count;
+    }
+
+    /**
+     * @return Amount of buckets
+     */
+    public int getBucketCount() {
+        return BUCKET_BOUNDS.length;
+    }
+
+    /**
+     * @param bucket Index of the bucket
+     * @return Upper bound of the bucket in milliseconds (inclusive), {@link Long#MAX_VALUE} for the last bucket
+     */
+    public long getBucketBound(int bucket) {
+        return BUCKET_BOUNDS[bucket];
+    }
+
+    /**
+     * @param bucket Index of the bucket
+     * @return Amount of latencies in the bucket
+     */
+    public long getCount(int bucket) {
+        return counts[bucket];
+    }
+
+    /**
+     * @return Total amount of recorded latencies
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the upper bound of the bucket that contains the specified percentile
+     *
+     * @param percentile Percentile between 0 and 100
+     * @return Upper bound in milliseconds, {@code -1} if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return -1;
+        }
+
+        long target = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target && seen > 0) {
+                return BUCKET_BOUNDS[i];
+            }
+        }
+        return BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1];
+    }
+
+    /**
+     * Records latencies into fixed buckets without allocating
+     */
+    static final class Recorder {
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKET_BOUNDS.length);
+
+        void record(long millis) {
+            int bucket = 0;
+            while (millis > BUCKET_BOUNDS[bucket]) {
+                bucket++;
+            }
+            counts.incrementAndGet(bucket);
+        }
+
+        LatencyHistogram snapshot() {
+            long[] snapshot = new long[counts.length()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = counts.get(i);
+            }
+            return new LatencyHistogram(snapshot);
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import org.libtorrent4j.FileStorage;
+import org.libtorrent4j.Priority;
+import org.libtorrent4j.TorrentFlags;
+import org.libtorrent4j.TorrentHandle;
+import org.libtorrent4j.TorrentStatus;
+
+/**
+ * {@link TorrentBackend} that forwards to a libtorrent {@link TorrentHandle}
+ */
+final class LibTorrentBackend implements TorrentBackend {
+
+    private final TorrentHandle torrentHandle;
+    private FileStorage fileStorage;
+
+    LibTorrentBackend(TorrentHandle torrentHandle) {
+        this.torrentHandle = torrentHandle;
+    }
+
+    private synchronized FileStorage files() {
+        // The file storage does not change once the metadata is known, so it is only copied from libtorrent once
+        if (fileStorage == null) {
+            fileStorage = torrentHandle.torrentFile().files();
+        }
+        return fileStorage;
+    }
+
+    @Override
+    public TorrentHandle torrentHandle() {
+        return torrentHandle;
+    }
+
+    @Override
+    public Clock clock() {
+        return Clock.SYSTEM;
+    }
+
+    @Override
+    public String infoHash() {
+        return torrentHandle.infoHash().toHex();
+    }
+
+    @Override
+    public String name() {
+        return torrentHandle.getName();
+    }
+
+    @Override
+    public String savePath() {
+        return torrentHandle.savePath();
+    }
+
+    @Override
+    public int pieceLength() {
+        return files().pieceLength();
+    }
+
+    @Override
+    public int numFiles() {
+        return files().numFiles();
+    }
+
+    @Override
+    public String fileName(int fileIndex) {
+        return files().fileName(fileIndex);
+    }
+
+    @Override
+    public String filePath(int fileIndex) {
+        return files().filePath(fileIndex);
+    }
+
+    @Override
+    public long fileSize(int fileIndex) {
+        return files().fileSize(fileIndex);
+    }
+
+    @Override
+    public long fileOffset(int fileIndex) {
+        return files().fileOffset(fileIndex);
+    }
+
+    @Override
+    public Priority[] piecePriorities() {
+        return torrentHandle.piecePriorities();
+    }
+
+    @Override
+    public void piecePriority(int pieceIndex, Priority priority) {
+        torrentHandle.piecePriority(pieceIndex, priority);
+    }
+
+    @Override
+    public void prioritizePieces(Priority[] priorities) {
+        torrentHandle.prioritizePieces(priorities);
+    }
+
+    @Override
+    public void filePriority(int fileIndex, Priority priority) {
+        torrentHandle.filePriority(fileIndex, priority);
+    }
+
+    @Override
+    public void setPieceDeadline(int pieceIndex, int deadline) {
+        torrentHandle.setPieceDeadline(pieceIndex, deadline);
+    }
+
+    @Override
+    public void resetPieceDeadline(int pieceIndex) {
+        torrentHandle.resetPieceDeadline(pieceIndex);
+    }
+
+    @Override
+    public boolean havePiece(int pieceIndex) {
+        return torrentHandle.havePiece(pieceIndex);
+    }
+
+    @Override
+    public void setSequentialDownload() {
+        torrentHandle.setFlags(TorrentFlags.SEQUENTIAL_DOWNLOAD);
+    }
+
+    @Override
+    public int blockSize() {
+        return torrentHandle.status().blockSize();
+    }
+
+    @Override
+    public Status status() {
+        TorrentStatus status = torrentHandle.status();
+        return new Status(status.progress(), status.numSeeds(), status.downloadPayloadRate());
+    }
+
+    @Override
+    public void resume() {
+        torrentHandle.resume();
+    }
+
+    @Override
+    public void pause() {
+        torrentHandle.pause();
+    }
+
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import org.libtorrent4j.TorrentInfo;
+
+import com.github.se_bastiaan.torrentstream.utils.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent cache of torrent metadata, so a torrent that was opened before does not have to be downloaded or fetched
+ * from the swarm again.
+ * <p/>
+ * The bencoded torrents are stored in a directory as {@code <info-hash>.torrent}, an alias table maps the urls they were
+ * loaded from to their info-hash and the {@link MetadataLoader.Validators} of the response they were downloaded with.
+ * When the total size exceeds the maximum, the least recently used torrents are removed. A torrent is validated when it is loaded, a file that can't be decoded or has another info-hash is removed.
+ */
+final class MetadataCache {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String EXTENSION = ".torrent";
+    private static final String ALIASES = "aliases";
+
+    private final File directory;
+    private final long maxSize;
+
+    // Info-hash to file size, in access order so the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Alias> aliases = new HashMap<>();
+    private long size;
+    private boolean loaded;
+
+    /**
+     * @param directory Directory the cache is stored in
+     * @param maxSize   Maximum total size of the cached torrents in bytes, {@code 0} disables the cache
+     */
+    MetadataCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the metadata of the torrent that was loaded from the specified url
+     *
+     * @param torrentUrl {@link String} .torrent or magnet link
+     * @return {@link TorrentInfo}, {@code null} if not cached
+     */
+    synchronized TorrentInfo get(String torrentUrl) {
+        load();
+        Alias alias = aliases.get(torrentUrl);
+        return alias != null ? getByInfoHash(alias.infoHash) : null;
+    }
+
+    /**
+     * Get the values to revalidate the torrent that was downloaded from the specified url
+     *
+     * @param torrentUrl {@link String} url of the .torrent
+     * @return {@link MetadataLoader.Validators}, {@code null} if the url is not cached or had no validators
+     */
+    synchronized MetadataLoader.Validators getValidators(String torrentUrl) {
+        load();
+        Alias alias = aliases.get(torrentUrl);
+        return alias != null && !alias.validators.isEmpty() ? alias.validators : null;
+    }
+
+    /**
+     * Get the metadata of a torrent
+     *
+     * @param infoHash Hex encoded info-hash
+     * @return {@link TorrentInfo}, {@code null} if not cached
+     */
+    synchronized TorrentInfo getByInfoHash(String infoHash) {
+        load();
+        if (entries.get(infoHash) == null) {
+            return null;
+        }
+
+        File file = getFile(infoHash);
+        TorrentInfo torrentInfo = read(file, infoHash);
+        if (torrentInfo == null) {
+            remove(infoHash);
+            saveAliases();
+            return null;
+        }
+
+        file.setLastModified(System.currentTimeMillis());
+        return torrentInfo;
+    }
+
+    /**
+     * Add the metadata of a torrent to the cache
+     *
+     * @param torrentUrl  {@link String} .torrent or magnet link the metadata was loaded from, can be {@code null}
+     * @param torrentInfo {@link TorrentInfo}
+     */
+    synchronized void put(String torrentUrl, TorrentInfo torrentInfo) {
+        put(torrentUrl, torrentInfo, null);
+    }
+
+    /**
+     * Add the metadata of a torrent to the cache
+     *
+     * @param torrentUrl  {@link String} .torrent or magnet link the metadata was loaded from, can be {@code null}
+     * @param torrentInfo {@link TorrentInfo}
+     * @param validators  {@link MetadataLoader.Validators} of the response the .torrent was downloaded with, can be {@code null}
+     */
+    synchronized void put(String torrentUrl, TorrentInfo torrentInfo, MetadataLoader.Validators validators) {
+        load();
+        String infoHash = torrentInfo.infoHash().toHex();
+        byte[] data = torrentInfo.bencode();
+        if (data == null || data.length > maxSize) {
+            return;
+        }
+
+        try {
+            FileUtils.writeAtomically(getFile(infoHash), data);
+        } catch (IOException e) {
+            return;
+        }
+
+        Long previousSize = entries.put(infoHash, (long) data.length);
+        size += data.length - (previousSize != null ? previousSize : 0);
+        if (torrentUrl != null) {
+            aliases.put(torrentUrl, new Alias(infoHash, validators));
+        }
+
+        evict();
+        saveAliases();
+    }
+
+    /**
+     * Read the directory the first time the cache is used, the least recently used files are the ones that were
+     * modified the longest time ago
+     */
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            entries.put(name.substring(0, name.length() - EXTENSION.length()), file.length());
+            size += file.length();
+        }
+
+        File aliasesFile = new File(directory, ALIASES);
+        if (aliasesFile.isFile()) {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(aliasesFile), UTF_8));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        // <info-hash> <etag> <last-modified> <url>, separated by tabs
+                        String[] fields = line.split("\t", 4);
+                        if (fields.length == 4 && entries.containsKey(fields[0])) {
+                            try {
+                                MetadataLoader.Validators validators = new MetadataLoader.Validators(
+                                        fields[1].isEmpty() ? null : fields[1], Long.parseLong(fields[2]));
+                                aliases.put(fields[3], new Alias(fields[0], validators));
+                            } catch (NumberFormatException e) {
+                                // Skip the alias, the torrent is still found by info-hash
+                            }
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                // The torrents are still found by info-hash
+            }
+        }
+
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            iterator.remove();
+            size -= entry.getValue();
+            getFile(entry.getKey()).delete();
+            removeAliases(entry.getKey());
+        }
+    }
+
+    private void remove(String infoHash) {
+        Long fileSize = entries.remove(infoHash);
+        if (fileSize != null) {
+            size -= fileSize;
+        }
+        getFile(infoHash).delete();
+        removeAliases(infoHash);
+    }
+
+    private void removeAliases(String infoHash) {
+        Iterator<Alias> iterator = aliases.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().infoHash.equals(infoHash)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static TorrentInfo read(File file, String infoHash) {
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            byte[] data;
+            try {
+                data = new byte[(int) randomAccessFile.length()];
+                randomAccessFile.readFully(data);
+            } finally {
+                randomAccessFile.close();
+            }
+
+            TorrentInfo torrentInfo = TorrentInfo.bdecode(data);
+            return infoHash.equals(torrentInfo.infoHash().toHex()) ? torrentInfo : null;
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void saveAliases() {
+        try {
+            StringBuilder builder = new StringBuilder();
+            for (Map.Entry<String, Alias> entry : aliases.entrySet()) {
+                Alias alias = entry.getValue();
+                builder.append(alias.infoHash)
+                        .append('\t')
+                        .append(alias.validators.eTag != null ? alias.validators.eTag : "")
+                        .append('\t')
+                        .append(alias.validators.lastModified)
+                        .append('\t')
+                        .append(entry.getKey())
+                        .append('\n');
+            }
+            FileUtils.writeAtomically(new File(directory, ALIASES), builder.toString().getBytes(UTF_8));
+        } catch (IOException e) {
+            // The aliases are rebuilt when the torrents are loaded again
+        }
+    }
+
+    private File getFile(String infoHash) {
+        return new File(directory, infoHash + EXTENSION);
+    }
+
+    private static final class Alias {
+
+        final String infoHash;
+        final MetadataLoader.Validators validators;
+
+        Alias(String infoHash, MetadataLoader.Validators validators) {
+            this.infoHash = infoHash;
+            this.validators = validators != null ? validators : new MetadataLoader.Validators(null, 0);
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Loads .torrent files from http(s) and file urls.
+ * <p/>
+ * The body of a http response is read into an array presized from the {@code Content-Length}, local files are memory
+ * mapped and copied in one go. Requests time out, and a response or file that is larger than the maximum size is
+ * rejected before it is read completely. A cached .torrent can be revalidated with a conditional request using the
+ * {@link Validators} of the previous response.
+ */
+final class MetadataLoader {
+
+    private static final int MIN_BUFFER_SIZE = 16 * 1024;
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int maxSize;
+
+    /**
+     * @param connectTimeout Connect timeout in milliseconds
+     * @param readTimeout    Read timeout in milliseconds
+     * @param maxSize        Maximum size of a .torrent in bytes
+     */
+    MetadataLoader(int connectTimeout, int readTimeout, int maxSize) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Download a .torrent
+     *
+     * @param torrentUrl {@link String} http(s) url
+     * @param validators {@link Validators} of the cached .torrent to only download it when it changed, can be {@code null}
+     * @return {@link Response}, its data is {@code null} when the .torrent did not change
+     * @throws IOException when the request fails, the server does not respond with the .torrent or it is too large
+     */
+    Response download(String torrentUrl, Validators validators) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(torrentUrl).openConnection();
+        try {
+            connection.setRequestMethod("GET");
+            connection.setInstanceFollowRedirects(true);
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            if (validators != null) {
+                if (validators.eTag != null) {
+                    connection.setRequestProperty("If-None-Match", validators.eTag);
+                }
+                if (validators.lastModified > 0) {
+                    connection.setIfModifiedSince(validators.lastModified);
+                }
+            }
+            connection.connect();
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && validators != null) {
+                return new Response(null, validators);
+            } else if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response " + responseCode + " for " + torrentUrl);
+            }
+
+            long contentLength = connection.getContentLength();
+            if (contentLength > maxSize) {
+                throw new IOException("Torrent of " + contentLength + " bytes exceeds the maximum of " + maxSize);
+            }
+
+            byte[] data;
+            InputStream inputStream = connection.getInputStream();
+            try {
+                data = read(inputStream, (int) contentLength);
+            } finally {
+                inputStream.close();
+            }
+
+            return new Response(data, new Validators(connection.getHeaderField("ETag"), connection.getLastModified()));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Read a local .torrent by mapping it into memory
+     *
+     * @param file {@link File}
+     * @return Contents of the file
+     * @throws IOException when the file can't be read or is too large
+     */
+    byte[] read(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size > maxSize) {
+                throw new IOException("Torrent of " + size + " bytes exceeds the maximum of " + maxSize);
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            byte[] data = new byte[(int) size];
+            buffer.get(data);
+            return data;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Read a response body, without copying it again when the content length is known
+     *
+     * @param inputStream   {@link InputStream} of the body
+     * @param contentLength Length of the body, {@code -1} if unknown
+     * @return Body
+     */
+    private byte[] read(InputStream inputStream, int contentLength) throws IOException {
+        byte[] data = new byte[contentLength >= 0 ? contentLength : MIN_BUFFER_SIZE];
+        int length = 0;
+        while (true) {
+            if (length == data.length) {
+                if (length == contentLength || length >= maxSize) {
+                    // The body is complete unless the server sends more than it announced or allowed
+                    if (inputStream.read() == -1) {
+                        return data;
+                    }
+                    throw new IOException("Torrent exceeds the content length or the maximum of " + maxSize + " bytes");
+                }
+                data = Arrays.copyOf(data, (int) Math.min(maxSize, data.length * 2L));
+            }
+
+            int read = inputStream.read(data, length, data.length - length);
+            if (read == -1) {
+                break;
+            }
+            length += read;
+        }
+
+        return length == data.length ? data : Arrays.copyOf(data, length);
+    }
+
+    /**
+     * Values of a response to check if a .torrent changed with a conditional request
+     */
+    static final class Validators {
+
+        final String eTag;
+        final long lastModified;
+
+        /**
+         * @param eTag         Value of the {@code ETag} header, can be {@code null}
+         * @param lastModified Value of the {@code Last-Modified} header in milliseconds since epoch, {@code 0} if unknown
+         */
+        Validators(String eTag, long lastModified) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+
+        boolean isEmpty() {
+            return eTag == null && lastModified <= 0;
+        }
+    }
+
+    static final class Response {
+
+        final byte[] data;
+        final Validators validators;
+
+        Response(byte[] data, Validators validators) {
+            this.data = data;
+            this.validators = validators;
+        }
+    }
+
+}
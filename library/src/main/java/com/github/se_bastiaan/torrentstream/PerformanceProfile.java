@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+/**
+ * Named sets of libtorrent settings for common workloads, see {@link TorrentOptions.Builder#performanceProfile(PerformanceProfile)}.
+ * <p/>
+ * Thread counts and buffer sizes of every profile are scaled to the amount of cores and the memory class of the device.
+ */
+public enum PerformanceProfile {
+
+    /**
+     * Keeps the first pieces of a stream fast: short request queues and piece timeouts so slow peers lose pieces with a
+     * deadline quickly, non-strict end game so the last blocks of a piece are requested from several peers, and fast
+     * connecting to new peers.
+     */
+    LOW_LATENCY_STREAMING,
+
+    /**
+     * Keeps the memory use of libtorrent low: fewer connections, peers, open files and disk threads, and small disk and
+     * send buffers. Meant for devices with little RAM, at the cost of throughput.
+     */
+    LOW_MEMORY_DEVICE,
+
+    /**
+     * Maximises throughput for downloading complete torrents: deep request queues, many connections, strict end game
+     * and more disk and hashing threads.
+     */
+    BULK_DOWNLOAD
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import org.libtorrent4j.SettingsPack;
+import org.libtorrent4j.swig.settings_pack;
+
+/**
+ * Maps a {@link PerformanceProfile} to libtorrent settings.
+ * <p/>
+ * The amount of disk and hashing threads follows the amount of cores, buffer sizes follow the memory class. The memory
+ * class is derived from the maximum heap size, which Android sizes after the RAM of the device.
+ */
+final class PerformanceSettings {
+
+    static final int MEMORY_LOW = 0, MEMORY_NORMAL = 1, MEMORY_HIGH = 2;
+
+    private static final long LOW_MEMORY_HEAP = 128 * 1024L * 1024L;
+    private static final long HIGH_MEMORY_HEAP = 384 * 1024L * 1024L;
+
+    private PerformanceSettings() throws InstantiationException {
+        throw new InstantiationException("This class is not created for instantiation");
+    }
+
+    /**
+     * @return Memory class of this device
+     */
+    static int getMemoryClass() {
+        long maxHeap = Runtime.getRuntime().maxMemory();
+        if (maxHeap <= LOW_MEMORY_HEAP) {
+            return MEMORY_LOW;
+        } else if (maxHeap >= HIGH_MEMORY_HEAP) {
+            return MEMORY_HIGH;
+        }
+        return MEMORY_NORMAL;
+    }
+
+    /**
+     * Get the connection limit of a profile, it is an option of its own so it can be overridden
+     *
+     * @param profile     {@link PerformanceProfile}
+     * @param memoryClass Memory class of the device
+     * @return Maximum amount of connections
+     */
+    static int getMaxConnections(PerformanceProfile profile, int memoryClass) {
+        switch (profile) {
+            case LOW_MEMORY_DEVICE:
+                return 50;
+            case BULK_DOWNLOAD:
+                return memoryClass == MEMORY_LOW ? 200 : 400;
+            case LOW_LATENCY_STREAMING:
+            default:
+                return memoryClass == MEMORY_LOW ? 100 : 200;
+        }
+    }
+
+    /**
+     * Apply the settings of a profile
+     *
+     * @param settingsPack {@link SettingsPack} to change
+     * @param profile      {@link PerformanceProfile}
+     * @param cores        Amount of cores
+     * @param memoryClass  Memory class of the device
+     */
+    static void apply(SettingsPack settingsPack, PerformanceProfile profile, int cores, int memoryClass) {
+        switch (profile) {
+            case LOW_LATENCY_STREAMING:
+                // Little data queued per peer, so new deadlines and priorities take effect right away
+                setInteger(settingsPack, settings_pack.int_types.request_queue_time, 2);
+                setInteger(settingsPack, settings_pack.int_types.max_out_request_queue, 250);
+                // Give up on peers that don't deliver quickly, a stalled block stalls playback
+                setInteger(settingsPack, settings_pack.int_types.piece_timeout, 5);
+                setInteger(settingsPack, settings_pack.int_types.request_timeout, 10);
+                setInteger(settingsPack, settings_pack.int_types.peer_timeout, 60);
+                setInteger(settingsPack, settings_pack.int_types.whole_pieces_threshold, 5);
+                setBoolean(settingsPack, settings_pack.bool_types.strict_end_game_mode, false);
+                // Find the fast peers soon after a torrent is added
+                setInteger(settingsPack, settings_pack.int_types.connection_speed, 50);
+                setInteger(settingsPack, settings_pack.int_types.torrent_connect_boost, 50);
+                setBoolean(settingsPack, settings_pack.bool_types.smooth_connects, false);
+
+                setInteger(settingsPack, settings_pack.int_types.aio_threads, clamp(cores, 2, 8));
+                setInteger(settingsPack, settings_pack.int_types.hashing_threads, clamp(cores / 2, 1, 4));
+                setInteger(settingsPack, settings_pack.int_types.max_queued_disk_bytes,
+                        scale(memoryClass, 1024 * 1024, 4 * 1024 * 1024, 8 * 1024 * 1024));
+                break;
+            case LOW_MEMORY_DEVICE:
+                setInteger(settingsPack, settings_pack.int_types.max_out_request_queue, 100);
+                setInteger(settingsPack, settings_pack.int_types.max_peerlist_size, 500);
+                setInteger(settingsPack, settings_pack.int_types.file_pool_size, 4);
+                setInteger(settingsPack, settings_pack.int_types.send_buffer_watermark, 128 * 1024);
+                setInteger(settingsPack, settings_pack.int_types.send_buffer_low_watermark, 16 * 1024);
+                setInteger(settingsPack, settings_pack.int_types.checking_mem_usage, 64);
+                setBoolean(settingsPack, settings_pack.bool_types.close_redundant_connections, true);
+
+                setInteger(settingsPack, settings_pack.int_types.aio_threads, clamp(cores / 2, 1, 2));
+                setInteger(settingsPack, settings_pack.int_types.hashing_threads, 1);
+                setInteger(settingsPack, settings_pack.int_types.max_queued_disk_bytes,
+                        scale(memoryClass, 512 * 1024, 1024 * 1024, 2 * 1024 * 1024));
+                break;
+            case BULK_DOWNLOAD:
+                // Deep queues keep fast peers busy, end game is left strict to avoid duplicate downloads
+                setInteger(settingsPack, settings_pack.int_types.request_queue_time, 6);
+                setInteger(settingsPack, settings_pack.int_types.max_out_request_queue, 1500);
+                setInteger(settingsPack, settings_pack.int_types.max_allowed_in_request_queue, 2000);
+                setBoolean(settingsPack, settings_pack.bool_types.strict_end_game_mode, true);
+                setInteger(settingsPack, settings_pack.int_types.connection_speed, 100);
+                setInteger(settingsPack, settings_pack.int_types.torrent_connect_boost, 80);
+                setInteger(settingsPack, settings_pack.int_types.send_buffer_watermark, 1024 * 1024);
+
+                setInteger(settingsPack, settings_pack.int_types.aio_threads, clamp(cores * 2, 4, 16));
+                setInteger(settingsPack, settings_pack.int_types.hashing_threads, clamp(cores, 1, 8));
+                setInteger(settingsPack, settings_pack.int_types.max_queued_disk_bytes,
+                        scale(memoryClass, 2 * 1024 * 1024, 8 * 1024 * 1024, 16 * 1024 * 1024));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void setInteger(SettingsPack settingsPack, settings_pack.int_types name, int value) {
+        settingsPack.setInteger(name.swigValue(), value);
+    }
+
+    private static void setBoolean(SettingsPack settingsPack, settings_pack.bool_types name, boolean value) {
+        settingsPack.setBoolean(name.swigValue(), value);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static int scale(int memoryClass, int low, int normal, int high) {
+        return memoryClass == MEMORY_LOW ? low : memoryClass == MEMORY_HIGH ? high : normal;
+    }
+
+}
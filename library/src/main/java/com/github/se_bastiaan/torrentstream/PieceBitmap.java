@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free bitmap of finished pieces.
+ * <p/>
+ * Pieces are only ever set, never cleared. The libtorrent alert thread sets them while reader threads query them,
+ * the atomic array makes sure readers see a finished piece as soon as it is set.
+ */
+final class PieceBitmap {
+
+    private static final int ADDRESS_BITS_PER_WORD = 6;
+    private static final long WORD_MASK = 0xffffffffffffffffL;
+
+    private final AtomicLongArray words;
+    private final int size;
+
+    PieceBitmap(int size) {
+        this.size = size;
+        this.words = new AtomicLongArray(((size - 1) >> ADDRESS_BITS_PER_WORD) + 1);
+    }
+
+    /**
+     * Get the amount of pieces in this bitmap
+     *
+     * @return Amount of pieces
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Check if a piece is finished
+     *
+     * @param index Index of the piece
+     * @return {@code true} if finished, {@code false} if not or if the index is out of range
+     */
+    boolean get(int index) {
+        if (index < 0 || index >= size) {
+            return false;
+        }
+        return (words.get(index >> ADDRESS_BITS_PER_WORD) & (1L << index)) != 0;
+    }
+
+    /**
+     * Mark a piece as finished
+     *
+     * @param index Index of the piece
+     * @return {@code true} if the piece was not marked finished before
+     */
+    boolean set(int index) {
+        if (index < 0 || index >= size) {
+            return false;
+        }
+
+        int wordIndex = index >> ADDRESS_BITS_PER_WORD;
+        long mask = 1L << index;
+        while (true) {
+            long word = words.get(wordIndex);
+            if ((word & mask) != 0) {
+                return false;
+            }
+            if (words.compareAndSet(wordIndex, word, word | mask)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Get the amount of finished pieces, counted word by word
+     *
+     * @return Amount of finished pieces
+     */
+    int cardinality() {
+        int count = 0;
+        for (int i = 0; i < words.length(); i++) {
+            count += Long.bitCount(words.get(i));
+        }
+        return count;
+    }
+
+    /**
+     * Check if all pieces are finished
+     *
+     * @return {@code true} if all pieces are finished
+     */
+    boolean isComplete() {
+        return cardinality() == size;
+    }
+
+    /**
+     * Find the first piece that is not finished, starting at the specified index
+     *
+     * @param fromIndex Index to start searching at (inclusive)
+     * @return Index of the first missing piece or {@code -1} if all pieces from {@code fromIndex} are finished
+     */
+    int nextClearBit(int fromIndex) {
+        if (fromIndex < 0) {
+            fromIndex = 0;
+        }
+        if (fromIndex >= size) {
+            return -1;
+        }
+
+        int wordIndex = fromIndex >> ADDRESS_BITS_PER_WORD;
+        long word = ~words.get(wordIndex) & (WORD_MASK << fromIndex);
+        while (true) {
+            if (word != 0) {
+                int index = (wordIndex << ADDRESS_BITS_PER_WORD) + Long.numberOfTrailingZeros(word);
+                return index < size ? index : -1;
+            }
+            if (++wordIndex == words.length()) {
+                return -1;
+            }
+            word = ~words.get(wordIndex);
+        }
+    }
+
+}
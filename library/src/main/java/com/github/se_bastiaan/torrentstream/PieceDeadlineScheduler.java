@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import java.util.BitSet;
+
+/**
+ * Assigns piece deadlines based on when a piece is needed for playback.
+ * <p/>
+ * The deadline of a piece grows with its distance to the playback position, using the rate at which the player
+ * consumes bytes. That way libtorrent requests the piece that is needed next from the fastest peers first.
+ * Deadlines are refreshed when the playback position moves, pieces that end up behind it lose their deadline.
+ * <p/>
+ * libtorrent has no call to set the deadlines of many pieces at once, so the scheduler remembers the time each
+ * deadline was set for and skips a piece when its new deadline ends up within {@link #DEADLINE_TOLERANCE} of the
+ * current one. Refreshes after small moves of the playback position then only cross JNI for the pieces that changed.
+ * <p/>
+ * Piece indices are relative to the first piece of the selected file.
+ */
+final class PieceDeadlineScheduler {
+
+    static final int FIRST_DEADLINE = 500;
+    static final int DEFAULT_PIECE_INTERVAL = 250;
+    static final int MAX_DEADLINE = 60 * 1000;
+    static final int DEADLINE_TOLERANCE = DEFAULT_PIECE_INTERVAL;
+
+    private final TorrentBackend backend;
+    private final Clock clock;
+    private final PieceIndex pieceIndex;
+    private final ReadAheadController readAhead;
+    private final BitSet scheduled;
+    private final long[] requestTimes;
+    // Time in milliseconds that the applied deadline of each scheduled piece expires
+    private final long[] deadlineTimes;
+
+    PieceDeadlineScheduler(TorrentBackend backend, PieceIndex pieceIndex, ReadAheadController readAhead) {
+        this.backend = backend;
+        this.clock = backend.clock();
+        this.pieceIndex = pieceIndex;
+        this.readAhead = readAhead;
+        this.scheduled = new BitSet(pieceIndex.getPieceCount());
+        this.requestTimes = new long[pieceIndex.getPieceCount()];
+        this.deadlineTimes = new long[pieceIndex.getPieceCount()];
+    }
+
+    /**
+     * Get the deadline of a piece
+     *
+     * @param distance Amount of pieces between the playback position and the piece
+     * @return Deadline in milliseconds
+     */
+    int getDeadline(int distance) {
+        long bytesPerSecond = readAhead.getConsumeRate();
+        long pieceInterval = bytesPerSecond > 0 ? pieceIndex.getPieceLength() * 1000L / bytesPerSecond : DEFAULT_PIECE_INTERVAL;
+        return (int) Math.min(MAX_DEADLINE, FIRST_DEADLINE + Math.max(0, distance) * pieceInterval);
+    }
+
+    /**
+     * Set the deadline of a piece
+     *
+     * @param piece    Index of the piece
+     * @param distance Amount of pieces between the playback position and the piece
+     */
+    synchronized void schedule(int piece, int distance) {
+        long now = clock.nanoTime();
+        setDeadline(piece, getDeadline(distance), now / 1000000L);
+        scheduled.set(piece);
+        if (requestTimes[piece] == 0) {
+            requestTimes[piece] = now;
+        }
+    }
+
+    /**
+     * Refresh the deadlines after the playback position moved.
+     * Pieces before the playback position are not needed anymore and their deadlines are cleared.
+     *
+     * @param playheadPiece Piece of the playback position
+     */
+    synchronized void update(int playheadPiece) {
+        long now = clock.nanoTime() / 1000000L;
+        for (int piece = scheduled.nextSetBit(0); piece >= 0; piece = scheduled.nextSetBit(piece + 1)) {
+            if (piece < playheadPiece) {
+                backend.resetPieceDeadline(piece + pieceIndex.getFirstPiece());
+                scheduled.clear(piece);
+                requestTimes[piece] = 0;
+            } else {
+                setDeadline(piece, getDeadline(piece - playheadPiece), now);
+            }
+        }
+    }
+
+    /**
+     * Clear the deadlines of the pieces in a range
+     *
+     * @param fromPiece First piece of the range (inclusive)
+     * @param toPiece   Last piece of the range (exclusive)
+     */
+    synchronized void clear(int fromPiece, int toPiece) {
+        for (int piece = scheduled.nextSetBit(Math.max(0, fromPiece)); piece >= 0 && piece < toPiece; piece = scheduled.nextSetBit(piece + 1)) {
+            backend.resetPieceDeadline(piece + pieceIndex.getFirstPiece());
+            scheduled.clear(piece);
+            requestTimes[piece] = 0;
+        }
+    }
+
+    /**
+     * Set the deadline of a piece unless it has a deadline that expires at almost the same time
+     *
+     * @param piece    Index of the piece
+     * @param deadline Deadline in milliseconds
+     * @param now      Current time in milliseconds
+     */
+    private void setDeadline(int piece, int deadline, long now) {
+        long deadlineTime = now + deadline;
+        if (scheduled.get(piece) && Math.abs(deadlineTime - deadlineTimes[piece]) < DEADLINE_TOLERANCE) {
+            return;
+        }
+        backend.setPieceDeadline(piece + pieceIndex.getFirstPiece(), deadline);
+        deadlineTimes[piece] = deadlineTime;
+    }
+
+    /**
+     * Forget the deadline of a finished piece, libtorrent clears it by itself
+     *
+     * @param piece Index of the piece
+     * @return Nanoseconds between the first deadline of the piece and now, {@code -1} if the piece had no deadline
+     */
+    synchronized long pieceFinished(int piece) {
+        if (piece < 0 || piece >= requestTimes.length) {
+            return -1;
+        }
+
+        scheduled.clear(piece);
+        long requestTime = requestTimes[piece];
+        requestTimes[piece] = 0;
+        return requestTime == 0 ? -1 : clock.nanoTime() - requestTime;
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+/**
+ * Maps byte offsets of a single file in the torrent to the pieces that contain them.
+ * <p/>
+ * Files in a multi-file torrent start at an offset inside the torrent, so piece boundaries are not aligned
+ * with the start of the file. The offsets are read once from the {@link TorrentBackend}, after that every
+ * lookup is plain arithmetic without calls into libtorrent.
+ * <p/>
+ * Piece indices returned by this class are relative to {@link #getFirstPiece()}, unless stated otherwise.
+ */
+final class PieceIndex {
+
+    private final int pieceLength;
+    private final long fileOffset;
+    private final long fileSize;
+    private final int firstPiece;
+    private final int lastPiece;
+
+    PieceIndex(int pieceLength, long fileOffset, long fileSize) {
+        this.pieceLength = pieceLength;
+        this.fileOffset = fileOffset;
+        this.fileSize = fileSize;
+        this.firstPiece = (int) (fileOffset / pieceLength);
+        this.lastPiece = (int) ((fileOffset + Math.max(0, fileSize - 1)) / pieceLength);
+    }
+
+    /**
+     * @return Length of a piece in bytes
+     */
+    int getPieceLength() {
+        return pieceLength;
+    }
+
+    /**
+     * @return Size of the file in bytes
+     */
+    long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * @return Index of the first piece of the file in the torrent
+     */
+    int getFirstPiece() {
+        return firstPiece;
+    }
+
+    /**
+     * @return Index of the last piece of the file in the torrent
+     */
+    int getLastPiece() {
+        return lastPiece;
+    }
+
+    /**
+     * @return Amount of pieces that contain bytes of the file
+     */
+    int getPieceCount() {
+        return lastPiece - firstPiece + 1;
+    }
+
+    /**
+     * Get the piece that contains the specified byte of the file
+     *
+     * @param bytes Byte offset in the file
+     * @return Piece index relative to the first piece of the file
+     */
+    int getPiece(long bytes) {
+        return (int) ((fileOffset + bytes) / pieceLength) - firstPiece;
+    }
+
+    /**
+     * Get the byte offset in the file where the specified piece starts
+     *
+     * @param piece Piece index relative to the first piece of the file
+     * @return Byte offset in the file, {@code 0} for the first piece even if it starts in the previous file
+     */
+    long getPieceStart(int piece) {
+        return Math.max(0, (long) (firstPiece + piece) * pieceLength - fileOffset);
+    }
+
+}
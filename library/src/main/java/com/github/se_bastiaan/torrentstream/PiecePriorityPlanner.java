@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import org.libtorrent4j.Priority;
+
+import java.util.Arrays;
+
+/**
+ * Collects piece priority changes and applies them to the torrent in as few calls as possible.
+ * <p/>
+ * Every call into libtorrent crosses JNI and makes libtorrent update its piece picker, so changing the priorities of
+ * thousands of pieces one by one is slow. The planner keeps the desired priorities next to the ones that were applied
+ * last. {@link #apply()} only sends the differences: a few pieces one by one, more than that in a single bulk call.
+ * <p/>
+ * Piece indices are absolute. The planner assumes it is the only one changing piece priorities, after file priorities
+ * change it has to be created again.
+ */
+final class PiecePriorityPlanner {
+
+    static final int MAX_SINGLE_CHANGES = 8;
+
+    private final TorrentBackend backend;
+    private final Priority[] desired;
+    private final Priority[] applied;
+    // Range of pieces that changed since the last apply, empty when dirtyFrom > dirtyTo
+    private int dirtyFrom = Integer.MAX_VALUE;
+    private int dirtyTo = -1;
+
+    PiecePriorityPlanner(TorrentBackend backend) {
+        this.backend = backend;
+        this.applied = backend.piecePriorities();
+        this.desired = applied.clone();
+    }
+
+    int getPieceCount() {
+        return desired.length;
+    }
+
+    synchronized Priority get(int piece) {
+        return desired[piece];
+    }
+
+    /**
+     * Set the desired priority of a piece, applied by the next {@link #apply()}
+     *
+     * @param piece    Index of the piece
+     * @param priority {@link Priority}
+     */
+    synchronized void set(int piece, Priority priority) {
+        if (desired[piece] != priority) {
+            desired[piece] = priority;
+            dirtyFrom = Math.min(dirtyFrom, piece);
+            dirtyTo = Math.max(dirtyTo, piece);
+        }
+    }
+
+    /**
+     * Set the desired priority of a range of pieces, applied by the next {@link #apply()}
+     *
+     * @param fromPiece First piece of the range (inclusive)
+     * @param toPiece   Last piece of the range (exclusive)
+     * @param priority  {@link Priority}
+     */
+    synchronized void set(int fromPiece, int toPiece, Priority priority) {
+        int from = Math.max(0, fromPiece);
+        int to = Math.min(desired.length, toPiece);
+        if (from < to) {
+            Arrays.fill(desired, from, to, priority);
+            dirtyFrom = Math.min(dirtyFrom, from);
+            dirtyTo = Math.max(dirtyTo, to - 1);
+        }
+    }
+
+    /**
+     * Apply the desired priorities that differ from the applied ones
+     *
+     * @return Amount of pieces that changed
+     */
+    synchronized int apply() {
+        int from = dirtyFrom;
+        int to = dirtyTo;
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = -1;
+
+        int changes = 0;
+        for (int i = from; i <= to; i++) {
+            if (desired[i] != applied[i]) {
+                changes++;
+            }
+        }
+
+        if (changes > MAX_SINGLE_CHANGES) {
+            backend.prioritizePieces(desired.clone());
+            System.arraycopy(desired, from, applied, from, to - from + 1);
+        } else if (changes > 0) {
+            for (int i = from; i <= to; i++) {
+                if (desired[i] != applied[i]) {
+                    backend.piecePriority(i, desired[i]);
+                    applied[i] = desired[i];
+                }
+            }
+        }
+        return changes;
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Registry of threads that wait for a piece to finish, keyed by piece index.
+ * <p/>
+ * A finished piece only wakes the threads that are waiting for that specific piece,
+ * instead of every reader of the torrent. Once the stream is stopped, {@link #cancelAll()} ends all current and future waits.
+ */
+final class PieceWaitRegistry {
+
+    private final Map<Integer, List<Waiter>> waiters = new HashMap<>();
+    private volatile PieceBitmap pieces;
+    private volatile boolean canceled;
+
+    /**
+     * Set the bitmap of finished pieces. Wakes all waiting threads so they check the new bitmap.
+     *
+     * @param pieces {@link PieceBitmap}
+     */
+    void setPieces(PieceBitmap pieces) {
+        this.pieces = pieces;
+        wakeAll();
+    }
+
+    /**
+     * Check if a piece is finished
+     *
+     * @param pieceIndex Index of the piece
+     * @return {@code true} if finished
+     */
+    boolean isFinished(int pieceIndex) {
+        PieceBitmap pieces = this.pieces;
+        return pieces != null && pieces.get(pieceIndex);
+    }
+
+    /**
+     * Block the calling thread until the piece is finished
+     *
+     * @param pieceIndex    Index of the piece
+     * @param timeoutMillis Maximum time to wait in milliseconds, {@code 0} to wait without timeout
+     * @param waiter        {@link Waiter} of the calling thread, used to cancel the wait from another thread
+     * @return {@code true} if the piece is finished, {@code false} on timeout, cancellation or interruption
+     */
+    boolean await(int pieceIndex, long timeoutMillis, Waiter waiter) {
+        if (canceled) {
+            return false;
+        } else if (isFinished(pieceIndex)) {
+            return true;
+        }
+
+        long deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        waiter.thread = Thread.currentThread();
+        add(pieceIndex, waiter);
+        try {
+            // Checked after registering, so a piece that finishes in between is never missed
+            while (!isFinished(pieceIndex)) {
+                if (canceled || waiter.canceled || Thread.currentThread().isInterrupted()) {
+                    return false;
+                }
+
+                if (timeoutMillis > 0) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+            return true;
+        } finally {
+            remove(pieceIndex, waiter);
+            waiter.thread = null;
+        }
+    }
+
+    /**
+     * Wake the threads that wait for the piece. Has to be called after the piece is set in the bitmap.
+     *
+     * @param pieceIndex Index of the piece
+     */
+    void pieceFinished(int pieceIndex) {
+        List<Waiter> pieceWaiters;
+        synchronized (waiters) {
+            pieceWaiters = waiters.remove(pieceIndex);
+        }
+
+        if (pieceWaiters != null) {
+            for (Waiter waiter : pieceWaiters) {
+                waiter.unpark();
+            }
+        }
+    }
+
+    /**
+     * Wake all waiting threads, they go back to waiting if their piece is still not finished
+     */
+    void wakeAll() {
+        List<Waiter> allWaiters = new ArrayList<>();
+        synchronized (waiters) {
+            for (List<Waiter> pieceWaiters : waiters.values()) {
+                allWaiters.addAll(pieceWaiters);
+            }
+        }
+
+        for (Waiter waiter : allWaiters) {
+            waiter.unpark();
+        }
+    }
+
+    /**
+     * Cancel the current and all future waits of all threads, used when the stream is stopped
+     */
+    void cancelAll() {
+        canceled = true;
+        wakeAll();
+    }
+
+    /**
+     * @return {@code true} if {@link #cancelAll()} was called
+     */
+    boolean isCanceled() {
+        return canceled;
+    }
+
+    private void add(int pieceIndex, Waiter waiter) {
+        synchronized (waiters) {
+            List<Waiter> pieceWaiters = waiters.get(pieceIndex);
+            if (pieceWaiters == null) {
+                pieceWaiters = new ArrayList<>(1);
+                waiters.put(pieceIndex, pieceWaiters);
+            }
+            pieceWaiters.add(waiter);
+        }
+    }
+
+    private void remove(int pieceIndex, Waiter waiter) {
+        synchronized (waiters) {
+            List<Waiter> pieceWaiters = waiters.get(pieceIndex);
+            if (pieceWaiters != null && pieceWaiters.remove(waiter) && pieceWaiters.isEmpty()) {
+                waiters.remove(pieceIndex);
+            }
+        }
+    }
+
+    /**
+     * Handle of a reader that waits for pieces. One waiter is used for all waits of the same reader.
+     */
+    static final class Waiter {
+
+        private volatile Thread thread;
+        private volatile boolean canceled;
+
+        /**
+         * Cancel the current and all future waits of this waiter
+         */
+        void cancel() {
+            canceled = true;
+            unpark();
+        }
+
+        boolean isCanceled() {
+            return canceled;
+        }
+
+        private void unpark() {
+            Thread thread = this.thread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+}
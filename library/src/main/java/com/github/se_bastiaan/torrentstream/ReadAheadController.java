@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sizes the window of pieces that get the highest priority ahead of the playback position.
+ * <p/>
+ * The rate at which the reader consumes bytes and the rate at which pieces arrive are measured. The window holds
+ * the pieces that are needed for the target amount of buffered seconds. When the swarm is slower than playback
+ * the window is limited to what the swarm can deliver in that time, so the bandwidth is not spread over pieces that
+ * are needed much later. When the swarm is faster the window holds at least a second of download, so the swarm is
+ * kept busy.
+ */
+final class ReadAheadController {
+
+    static final int MIN_WINDOW_SIZE = 2;
+    static final int MAX_WINDOW_SIZE = 64;
+    static final int DEFAULT_WINDOW_SIZE = 5;
+
+    private final int pieceLength;
+    private final int targetBufferSeconds;
+    private final Rate consumeRate;
+    private final Rate downloadRate;
+
+    ReadAheadController(int pieceLength, int targetBufferSeconds, Clock clock) {
+        this.pieceLength = pieceLength;
+        this.targetBufferSeconds = targetBufferSeconds;
+        this.consumeRate = new Rate(clock);
+        this.downloadRate = new Rate(clock);
+    }
+
+    /**
+     * Register bytes that were read by a player
+     *
+     * @param count Amount of bytes
+     */
+    void bytesConsumed(long count) {
+        consumeRate.add(count);
+    }
+
+    /**
+     * Register a finished piece of the file
+     */
+    void pieceFinished() {
+        downloadRate.add(pieceLength);
+    }
+
+    /**
+     * @return Bytes per second read by players, {@code 0} if not measured yet
+     */
+    long getConsumeRate() {
+        return consumeRate.get();
+    }
+
+    /**
+     * Get the amount of pieces that should have the highest priority ahead of the playback position
+     *
+     * @return Window size in pieces
+     */
+    int getWindowSize() {
+        long consume = consumeRate.get();
+        long download = downloadRate.get();
+        if (consume == 0 || download == 0 || pieceLength <= 0) {
+            return DEFAULT_WINDOW_SIZE;
+        }
+
+        long window = divideRoundUp(targetBufferSeconds * consume, pieceLength);
+        if (download < consume) {
+            window = Math.min(window, divideRoundUp(targetBufferSeconds * download, pieceLength));
+        } else {
+            window = Math.max(window, divideRoundUp(download, pieceLength));
+        }
+
+        return (int) Math.max(MIN_WINDOW_SIZE, Math.min(MAX_WINDOW_SIZE, window));
+    }
+
+    private static long divideRoundUp(long value, long divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * Exponential moving average of bytes per second, sampled at most once per second
+     */
+    private static final class Rate {
+
+        private static final long SAMPLE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+        private static final double WEIGHT = 0.3;
+
+        private final Clock clock;
+        private final AtomicLong bytes = new AtomicLong();
+        private long sampleStart;
+        private volatile long rate;
+
+        Rate(Clock clock) {
+            this.clock = clock;
+            this.sampleStart = clock.nanoTime();
+        }
+
+        void add(long count) {
+            bytes.addAndGet(count);
+            sample();
+        }
+
+        long get() {
+            sample();
+            return rate;
+        }
+
+        private synchronized void sample() {
+            long now = clock.nanoTime();
+            long elapsed = now - sampleStart;
+            if (elapsed < SAMPLE_INTERVAL) {
+                return;
+            }
+
+            long sample = bytes.getAndSet(0) * TimeUnit.SECONDS.toNanos(1) / elapsed;
+            rate = rate == 0 ? sample : (long) (WEIGHT * sample + (1 - WEIGHT) * rate);
+            sampleStart = now;
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import com.github.se_bastiaan.torrentstream.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Stores the libtorrent resume data of torrents in a directory, one file per info-hash.
+ * <p/>
+ * Resume data tells libtorrent which pieces are on disk already, so a torrent that is added again does not have to
+ * check all of its files.
+ */
+final class ResumeDataStore {
+
+    private static final String EXTENSION = ".resume";
+
+    private final File directory;
+
+    ResumeDataStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Get the resume file of a torrent
+     *
+     * @param infoHash Hex encoded info-hash
+     * @return Resume {@link File}, {@code null} if there is no resume data for the torrent
+     */
+    File get(String infoHash) {
+        File file = getFile(infoHash);
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Save the resume data of a torrent, replaces the previous resume data
+     *
+     * @param infoHash Hex encoded info-hash
+     * @param data     Bencoded resume data
+     */
+    synchronized void save(String infoHash, byte[] data) throws IOException {
+        FileUtils.writeAtomically(getFile(infoHash), data);
+    }
+
+    /**
+     * Delete the resume data of a torrent
+     *
+     * @param infoHash Hex encoded info-hash
+     */
+    synchronized void delete(String infoHash) {
+        getFile(infoHash).delete();
+    }
+
+    private File getFile(String infoHash) {
+        return new File(directory, infoHash + EXTENSION);
+    }
+
+}
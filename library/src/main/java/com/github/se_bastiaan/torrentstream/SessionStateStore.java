@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import com.github.se_bastiaan.torrentstream.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Stores the libtorrent session state, which contains the DHT node id and routing table.
+ * <p/>
+ * A session that starts with the state of the previous session knows DHT nodes right away, instead of bootstrapping
+ * its routing table from nothing.
+ */
+final class SessionStateStore {
+
+    private final File file;
+
+    SessionStateStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return Bencoded session state, {@code null} if there is none
+     */
+    synchronized byte[] load() {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                byte[] data = new byte[(int) randomAccessFile.length()];
+                randomAccessFile.readFully(data);
+                return data;
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Save the session state, replaces the previous state
+     *
+     * @param data Bencoded session state
+     */
+    synchronized void save(byte[] data) throws IOException {
+        FileUtils.writeAtomically(file, data);
+    }
+
+    /**
+     * Delete the saved state, for example because libtorrent could not read it
+     */
+    synchronized void delete() {
+        file.delete();
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable snapshot of the performance metrics of a stream.
+ * <p/>
+ * All times are in milliseconds since {@code startStream} was called, or since the {@link Torrent} was created when
+ * it was not started by {@link TorrentStream}. A time of {@code -1} means the moment did not happen yet.
+ */
+public class StreamMetrics {
+    public final long metadataTime;
+    public final long preparedTime;
+    public final long readyTime;
+    public final long firstByteTime;
+    public final int stallCount;
+    public final long stallTime;
+    public final LatencyHistogram pieceLatency;
+
+    StreamMetrics(long metadataTime, long preparedTime, long readyTime, long firstByteTime, int stallCount, long stallTime,
+                  LatencyHistogram pieceLatency) {
+        this.metadataTime = metadataTime;
+        this.preparedTime = preparedTime;
+        this.readyTime = readyTime;
+        this.firstByteTime = firstByteTime;
+        this.stallCount = stallCount;
+        this.stallTime = stallTime;
+        this.pieceLatency = pieceLatency;
+    }
+
+    /**
+     * Records the metrics of a stream, safe to use from multiple threads
+     */
+    static final class Recorder {
+
+        private final Clock clock;
+        private final long startTime;
+        private final AtomicLong metadataTime = new AtomicLong(-1);
+        private final AtomicLong preparedTime = new AtomicLong(-1);
+        private final AtomicLong readyTime = new AtomicLong(-1);
+        private final AtomicLong firstByteTime = new AtomicLong(-1);
+        private final AtomicInteger stallCount = new AtomicInteger();
+        private final AtomicLong stallTime = new AtomicLong();
+        private final LatencyHistogram.Recorder pieceLatency = new LatencyHistogram.Recorder();
+
+        Recorder() {
+            this(Clock.SYSTEM);
+        }
+
+        Recorder(Clock clock) {
+            this.clock = clock;
+            this.startTime = clock.nanoTime();
+        }
+
+        void metadataReceived() {
+            mark(metadataTime);
+        }
+
+        void prepared() {
+            mark(preparedTime);
+        }
+
+        void ready() {
+            mark(readyTime);
+        }
+
+        void firstByte() {
+            if (firstByteTime.get() == -1) {
+                mark(firstByteTime);
+            }
+        }
+
+        /**
+         * Register a reader that had to wait for a piece
+         *
+         * @param nanos Time spent waiting in nanoseconds
+         */
+        void stall(long nanos) {
+            stallCount.incrementAndGet();
+            stallTime.addAndGet(nanos);
+        }
+
+        /**
+         * Register the time between requesting a piece and finishing it
+         *
+         * @param nanos Latency in nanoseconds
+         */
+        void pieceLatency(long nanos) {
+            pieceLatency.record(TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+
+        StreamMetrics snapshot() {
+            return new StreamMetrics(metadataTime.get(), preparedTime.get(), readyTime.get(), firstByteTime.get(),
+                    stallCount.get(), TimeUnit.NANOSECONDS.toMillis(stallTime.get()), pieceLatency.snapshot());
+        }
+
+        private void mark(AtomicLong time) {
+            time.compareAndSet(-1, TimeUnit.NANOSECONDS.toMillis(clock.nanoTime() - startTime));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects finished blocks and publishes a {@link StreamStatus} at most once per interval.
+ * <p/>
+ * Counting a block is just an increment. The torrent status is only queried from libtorrent when a new
+ * {@link StreamStatus} is due, and the previous {@link StreamStatus} is reused when nothing changed.
+ * Used from the libtorrent alert thread and from the thread that starts the download, so every method synchronizes
+ * on the aggregator. Publishing the same status twice is prevented because {@link #publish} returns {@code null}
+ * when nothing changed.
+ */
+final class StreamProgressAggregator {
+
+    private final long intervalNanos;
+    private final Clock clock;
+
+    private int prepareBlocks;
+    private double progressStep;
+    private boolean prepared;
+    private long lastPublished;
+    private StreamStatus status;
+
+    StreamProgressAggregator(long intervalMillis, Clock clock) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.clock = clock;
+    }
+
+    /**
+     * Set the amount of blocks that have to be downloaded to prepare the stream
+     *
+     * @param blockCount Amount of blocks
+     */
+    synchronized void setPrepareBlockCount(double blockCount) {
+        progressStep = 100 / blockCount;
+        prepareBlocks = 0;
+        prepared = false;
+    }
+
+    /**
+     * Register a finished block of one of the pieces that are needed to prepare the stream
+     */
+    synchronized void prepareBlockFinished() {
+        prepareBlocks++;
+    }
+
+    /**
+     * Mark the stream as prepared, the buffer progress is 100 from now on
+     */
+    synchronized void prepared() {
+        prepared = true;
+    }
+
+    /**
+     * @return Buffer progress between 0 and 100
+     */
+    synchronized int getBufferProgress() {
+        return prepared ? 100 : (int) Math.min(100, prepareBlocks * progressStep);
+    }
+
+    /**
+     * Check if a new {@link StreamStatus} should be published
+     *
+     * @param force {@code true} to ignore the interval
+     * @return {@code true} if due
+     */
+    synchronized boolean isDue(boolean force) {
+        if (getBufferProgress() < 1) {
+            return false;
+        }
+        return force || lastPublished == 0 || clock.nanoTime() - lastPublished >= intervalNanos;
+    }
+
+    /**
+     * Create the {@link StreamStatus} to publish
+     *
+     * @param torrentStatus Current {@link TorrentBackend.Status}
+     * @return {@link StreamStatus}, or {@code null} if nothing changed since the previous one
+     */
+    synchronized StreamStatus publish(TorrentBackend.Status torrentStatus) {
+        lastPublished = clock.nanoTime();
+
+        float progress = torrentStatus.progress * 100;
+        int bufferProgress = getBufferProgress();
+        int seeds = torrentStatus.seeds;
+        int downloadSpeed = torrentStatus.downloadRate;
+
+        StreamStatus previous = status;
+        if (previous != null && previous.progress == progress && previous.bufferProgress == bufferProgress
+                && previous.seeds == seeds && previous.downloadSpeed == downloadSpeed) {
+            return null;
+        }
+
+        status = new StreamStatus(progress, bufferProgress, seeds, downloadSpeed);
+        return status;
+    }
+
+}
@@ -17,34 +17,35 @@
 package com.github.se_bastiaan.torrentstream;
 
 import org.libtorrent4j.AlertListener;
-import org.libtorrent4j.FileStorage;
 import org.libtorrent4j.Priority;
-import org.libtorrent4j.TorrentFlags;
+import org.libtorrent4j.Sha1Hash;
 import org.libtorrent4j.TorrentHandle;
-import org.libtorrent4j.TorrentInfo;
-import org.libtorrent4j.TorrentStatus;
 import org.libtorrent4j.alerts.Alert;
 import org.libtorrent4j.alerts.AlertType;
 import org.libtorrent4j.alerts.BlockFinishedAlert;
 import org.libtorrent4j.alerts.PieceFinishedAlert;
+import org.libtorrent4j.alerts.TorrentAlert;
 import com.github.se_bastiaan.torrentstream.listeners.TorrentListener;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ref.WeakReference;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class Torrent implements AlertListener {
 
     private final static Integer MAX_PREPARE_COUNT = 20;
     private final static Integer MIN_PREPARE_COUNT = 2;
     private final static Integer DEFAULT_PREPARE_COUNT = 5;
-    private final static Integer SEQUENTIAL_CONCURRENT_PIECES_COUNT = 5;
 
     public enum State {UNKNOWN, RETRIEVING_META, STARTING, STREAMING}
 
@@ -54,18 +55,32 @@ public class Torrent implements AlertListener {
     private Integer selectedFileIndex = -1;
     private Integer interestedPieceIndex = 0;
 
-    private Double prepareProgress = 0d;
-    private Double progressStep = 0d;
+    // Absolute indices of the prepare pieces that are not finished yet, guarded by prepareLock
     private List<Integer> preparePieces;
-    private Boolean[] hasPieces;
-
-    private List<WeakReference<TorrentInputStream>> torrentStreamReferences;
-
-    private State state = State.RETRIEVING_META;
-
-    private final TorrentHandle torrentHandle;
+    private final Object prepareLock = new Object();
+    private volatile PieceBitmap pieces;
+    private volatile PieceIndex pieceIndex;
+    private volatile ReadAheadController readAhead;
+    private final Object readAheadLock = new Object();
+    private int readAheadStart;
+    private int readAheadEnd;
+    private volatile PieceDeadlineScheduler deadlines;
+    private volatile PiecePriorityPlanner priorities;
+    private volatile int playheadPiece = 0;
+
+    private final PieceWaitRegistry pieceWaiters = new PieceWaitRegistry();
+    private RandomAccessFile videoFile;
+
+    private volatile State state = State.RETRIEVING_META;
+
+    private final TorrentBackend backend;
+    private final Clock clock;
+    private final Sha1Hash infoHash;
     private final TorrentListener listener;
     private final Long prepareSize;
+    private final Integer readAheadSeconds;
+    private final StreamProgressAggregator progress;
+    private final StreamMetrics.Recorder metrics;
 
     /**
      * The constructor for a new Torrent
@@ -78,12 +93,39 @@ public class Torrent implements AlertListener {
      * @param torrentHandle jlibtorrent TorrentHandle
      */
     public Torrent(TorrentHandle torrentHandle, TorrentListener listener, Long prepareSize) {
-        this.torrentHandle = torrentHandle;
-        this.listener = listener;
+        this(torrentHandle, listener, new TorrentOptions.Builder().prepareSize(prepareSize).build());
+    }
+
+    /**
+     * The constructor for a new Torrent, using the streaming related settings of the options
+     *
+     * @param torrentHandle jlibtorrent TorrentHandle
+     * @param listener      {@link TorrentListener}
+     * @param options       {@link TorrentOptions}
+     */
+    public Torrent(TorrentHandle torrentHandle, TorrentListener listener, TorrentOptions options) {
+        this(new LibTorrentBackend(torrentHandle), listener, options, new StreamMetrics.Recorder());
+    }
 
-        this.prepareSize = prepareSize;
+    /**
+     * The constructor for a new Torrent that is downloaded by the specified {@link TorrentBackend}
+     *
+     * @param backend  {@link TorrentBackend}
+     * @param listener {@link TorrentListener}
+     * @param options  {@link TorrentOptions}
+     * @param metrics  {@link StreamMetrics.Recorder} of the stream, has to use the clock of the backend
+     */
+    Torrent(TorrentBackend backend, TorrentListener listener, TorrentOptions options, StreamMetrics.Recorder metrics) {
+        this.backend = backend;
+        this.clock = backend.clock();
+        this.metrics = metrics;
+        // Only needed to filter the libtorrent alerts
+        this.infoHash = backend.torrentHandle() != null ? backend.torrentHandle().infoHash() : null;
+        this.listener = listener;
 
-        torrentStreamReferences = new ArrayList<>();
+        this.prepareSize = options.prepareSize;
+        this.readAheadSeconds = options.readAheadSeconds;
+        this.progress = new StreamProgressAggregator(options.progressInterval, clock);
 
         if (selectedFileIndex == -1) {
             setLargestFile();
@@ -95,30 +137,43 @@ public class Torrent implements AlertListener {
     }
 
     /**
-     * Reset piece priorities of selected file to normal
+     * Reset piece priorities of selected file to normal, applied by the next {@link PiecePriorityPlanner#apply()}
      */
     private void resetPriorities() {
-        Priority[] priorities = torrentHandle.piecePriorities();
-        for (int i = 0; i < priorities.length; i++) {
-            if (i >= firstPieceIndex && i <= lastPieceIndex) {
-                torrentHandle.piecePriority(i, Priority.DEFAULT);
-            } else {
-                torrentHandle.piecePriority(i, Priority.IGNORE);
-            }
-        }
+        priorities.set(0, firstPieceIndex, Priority.IGNORE);
+        priorities.set(firstPieceIndex, lastPieceIndex + 1, Priority.DEFAULT);
+        priorities.set(lastPieceIndex + 1, priorities.getPieceCount(), Priority.IGNORE);
     }
 
     /**
      * Get LibTorrent torrent handle of this torrent
      *
-     * @return {@link TorrentHandle}
+     * @return {@link TorrentHandle}, {@code null} if the torrent is not downloaded by libtorrent
      */
     public TorrentHandle getTorrentHandle() {
-        return torrentHandle;
+        return backend.torrentHandle();
+    }
+
+    /**
+     * Get the info-hash of this torrent
+     *
+     * @return {@link String} Hex encoded info-hash
+     */
+    public String getInfoHash() {
+        return backend.infoHash();
     }
 
     public File getVideoFile() {
-        return new File(torrentHandle.savePath() + "/" + torrentHandle.torrentFile().files().filePath(selectedFileIndex));
+        return new File(backend.savePath() + "/" + backend.filePath(selectedFileIndex));
+    }
+
+    /**
+     * Get the size of the selected file in bytes
+     *
+     * @return Size of the video file
+     */
+    public long getVideoFileSize() {
+        return pieceIndex.getFileSize();
     }
 
     /**
@@ -129,10 +184,177 @@ public class Torrent implements AlertListener {
      */
     public InputStream getVideoStream() throws FileNotFoundException {
         File file = getVideoFile();
-        TorrentInputStream inputStream = new TorrentInputStream(this, new FileInputStream(file));
-        torrentStreamReferences.add(new WeakReference<>(inputStream));
+        return new TorrentInputStream(this, new FileInputStream(file));
+    }
+
+    /**
+     * Read bytes of the video file at the specified position, without changing any shared position.
+     * Can be called from multiple threads at the same time, every call only waits for the pieces of its own range.
+     * Pieces of the range that are not downloaded yet get the highest priority.
+     * The bytes that are read count for the read rate, they only move the playback position when they continue the
+     * read-ahead window, see {@link #bytesConsumed(long, long)}.
+     *
+     * @param dst      {@link ByteBuffer} to read into, is filled up to its limit or the end of the file
+     * @param position Position in the video file to start reading at
+     * @return Amount of bytes read, {@code -1} if the position is at or after the end of the file
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        return read(dst, position, 0);
+    }
+
+    /**
+     * Read bytes of the video file at the specified position, without changing any shared position.
+     *
+     * @param dst           {@link ByteBuffer} to read into, is filled up to its limit or the end of the file
+     * @param position      Position in the video file to start reading at
+     * @param timeoutMillis Maximum time to wait for the pieces in milliseconds, {@code 0} to wait without timeout
+     * @return Amount of bytes read, {@code -1} if the position is at or after the end of the file
+     * @throws InterruptedIOException when the timeout expires or the thread is interrupted while waiting
+     */
+    public int read(ByteBuffer dst, long position, long timeoutMillis) throws IOException {
+        long fileSize = getVideoFileSize();
+        if (position >= fileSize) {
+            return -1;
+        }
+
+        int length = (int) Math.min(dst.remaining(), fileSize - position);
+        if (length == 0) {
+            return 0;
+        }
+
+        PieceIndex pieceIndex = this.pieceIndex;
+        int firstPiece = pieceIndex.getPiece(position);
+        int lastPiece = pieceIndex.getPiece(position + length - 1);
+        boolean missing = false;
+        for (int i = firstPiece; i <= lastPiece; i++) {
+            if (!pieceWaiters.isFinished(i)) {
+                priorities.set(i + firstPieceIndex, Priority.TOP_PRIORITY);
+                missing = true;
+            }
+        }
+
+        if (missing) {
+            priorities.apply();
+            for (int i = firstPiece; i <= lastPiece; i++) {
+                if (!pieceWaiters.isFinished(i)) {
+                    deadlines.schedule(i, 0);
+                }
+            }
+            awaitPieces(firstPiece, lastPiece, timeoutMillis);
+        }
+
+        FileChannel channel = getVideoFileChannel();
+        int limit = dst.limit();
+        dst.limit(dst.position() + length);
+        try {
+            int total = 0;
+            while (dst.hasRemaining()) {
+                int read = channel.read(dst, position + total);
+                if (read == -1) {
+                    break;
+                }
+                total += read;
+            }
+            if (total > 0) {
+                bytesConsumed(position, total);
+            }
+            return total == 0 ? -1 : total;
+        } finally {
+            dst.limit(limit);
+        }
+    }
+
+    /**
+     * Wait for the pieces of a positional read. When the read gives up, the pieces that are still missing get their
+     * normal priority back unless the stream needs them anyway, so reads that time out don't pile up prioritised pieces.
+     *
+     * @param fromPiece     First piece of the read (inclusive)
+     * @param toPiece       Last piece of the read (inclusive)
+     * @param timeoutMillis Maximum time to wait for the pieces in milliseconds, {@code 0} to wait without timeout
+     * @throws InterruptedIOException when the timeout expires or the wait is stopped
+     */
+    private void awaitPieces(int fromPiece, int toPiece, long timeoutMillis) throws InterruptedIOException {
+        PieceWaitRegistry.Waiter waiter = new PieceWaitRegistry.Waiter();
+        long stallStart = clock.nanoTime();
+        long deadline = stallStart + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        boolean finished = false;
+        try {
+            for (int i = fromPiece; i <= toPiece; i++) {
+                long remaining = 0;
+                if (timeoutMillis > 0) {
+                    remaining = TimeUnit.NANOSECONDS.toMillis(deadline - clock.nanoTime());
+                    if (remaining <= 0) {
+                        throw new InterruptedIOException("Timed out waiting for piece " + i);
+                    }
+                }
+
+                if (!pieceWaiters.await(i, remaining, waiter)) {
+                    throw new InterruptedIOException("Stopped waiting for piece " + i);
+                }
+            }
+            finished = true;
+        } finally {
+            metrics.stall(clock.nanoTime() - stallStart);
+            if (!finished) {
+                releasePieces(fromPiece, toPiece);
+            }
+        }
+    }
+
+    /**
+     * Give the missing pieces of a range their normal priority back and clear their deadlines, except for the pieces
+     * that prepare the stream and the pieces of the read-ahead window
+     *
+     * @param fromPiece First piece of the range (inclusive)
+     * @param toPiece   Last piece of the range (inclusive)
+     */
+    private void releasePieces(int fromPiece, int toPiece) {
+        int pieceCount = lastPieceIndex - firstPieceIndex + 1;
+        synchronized (readAheadLock) {
+            for (int i = fromPiece; i <= toPiece; i++) {
+                boolean needed = i < piecesToPrepare || i >= pieceCount - piecesToPrepare
+                        || (i >= readAheadStart && i < readAheadEnd);
+                if (!needed && !pieceWaiters.isFinished(i)) {
+                    priorities.set(i + firstPieceIndex, Priority.DEFAULT);
+                    deadlines.clear(i, i + 1);
+                }
+            }
+            priorities.apply();
+        }
+    }
+
+    /**
+     * Get the channel of the video file, FileChannel positional reads are safe to use from multiple threads
+     *
+     * @return {@link FileChannel}
+     */
+    private synchronized FileChannel getVideoFileChannel() throws IOException {
+        if (videoFile == null) {
+            videoFile = new RandomAccessFile(getVideoFile(), "r");
+        }
+        return videoFile.getChannel();
+    }
+
+    /**
+     * Stop all reads of the torrent, threads that wait for a piece return and the video file is closed
+     */
+    void close() {
+        pieceWaiters.cancelAll();
+        closeVideoFile();
+    }
 
-        return inputStream;
+    /**
+     * Close the video file that is opened for positional reads
+     */
+    synchronized void closeVideoFile() {
+        if (videoFile != null) {
+            try {
+                videoFile.close();
+            } catch (IOException e) {
+                // Ignore, the file is not used anymore
+            }
+            videoFile = null;
+        }
     }
 
     /**
@@ -141,21 +363,21 @@ public class Torrent implements AlertListener {
      * @return {@link File} The file location
      */
     public File getSaveLocation() {
-        return new File(torrentHandle.savePath() + "/" + torrentHandle.getName());
+        return new File(backend.savePath() + "/" + backend.name());
     }
 
     /**
      * Resume the torrent download
      */
     public void resume() {
-        torrentHandle.resume();
+        backend.resume();
     }
 
     /**
      * Pause the torrent download
      */
     public void pause() {
-        torrentHandle.pause();
+        backend.pause();
     }
 
     /**
@@ -172,58 +394,64 @@ public class Torrent implements AlertListener {
      * @param selectedFileIndex {@link Integer} Index of the file
      */
     public void setSelectedFileIndex(Integer selectedFileIndex) {
-        TorrentInfo torrentInfo = torrentHandle.torrentFile();
-        FileStorage fileStorage = torrentInfo.files();
-
+        int numFiles = backend.numFiles();
         if (selectedFileIndex == -1) {
-            long highestFileSize = 0;
-            int selectedFile = -1;
-            for (int i = 0; i < fileStorage.numFiles(); i++) {
-                long fileSize = fileStorage.fileSize(i);
-                if (highestFileSize < fileSize) {
-                    highestFileSize = fileSize;
-                    torrentHandle.filePriority(selectedFile, Priority.IGNORE);
-                    selectedFile = i;
-                    torrentHandle.filePriority(i, Priority.DEFAULT);
-                } else {
-                    torrentHandle.filePriority(i, Priority.IGNORE);
-                }
-            }
-            selectedFileIndex = selectedFile;
-        } else {
-            for (int i = 0; i < fileStorage.numFiles(); i++) {
-                if (i == selectedFileIndex) {
-                    torrentHandle.filePriority(i, Priority.DEFAULT);
-                } else {
-                    torrentHandle.filePriority(i, Priority.IGNORE);
-                }
+            selectedFileIndex = getLargestFile(backend);
+        }
+        for (int i = 0; i < numFiles; i++) {
+            if (i == selectedFileIndex) {
+                backend.filePriority(i, Priority.DEFAULT);
+            } else {
+                backend.filePriority(i, Priority.IGNORE);
             }
         }
         this.selectedFileIndex = selectedFileIndex;
+        closeVideoFile();
+
+        PieceIndex pieceIndex = new PieceIndex(backend.pieceLength(), backend.fileOffset(selectedFileIndex),
+                backend.fileSize(selectedFileIndex));
+        int pieceLength = pieceIndex.getPieceLength();
+        int activePieceCount = getPreparePieceCount(pieceIndex, prepareSize);
+
+        this.pieceIndex = pieceIndex;
+        this.priorities = new PiecePriorityPlanner(backend);
+        this.readAhead = new ReadAheadController(pieceLength, readAheadSeconds, clock);
+        this.deadlines = new PieceDeadlineScheduler(backend, pieceIndex, readAhead);
+        this.firstPieceIndex = pieceIndex.getFirstPiece();
+        this.interestedPieceIndex = 0;
+        this.playheadPiece = 0;
+        this.lastPieceIndex = pieceIndex.getLastPiece();
+        piecesToPrepare = activePieceCount;
+    }
 
-        Priority[] piecePriorities = torrentHandle.piecePriorities();
-        int firstPieceIndexLocal = -1;
-        int lastPieceIndexLocal = -1;
-        for (int i = 0; i < piecePriorities.length; i++) {
-            if (piecePriorities[i] != Priority.IGNORE) {
-                if (firstPieceIndexLocal == -1) {
-                    firstPieceIndexLocal = i;
-                }
-                piecePriorities[i] = Priority.IGNORE;
-            } else {
-                if (firstPieceIndexLocal != -1 && lastPieceIndexLocal == -1) {
-                    lastPieceIndexLocal = i - 1;
-                }
+    /**
+     * Get the file that is streamed when no file is selected
+     *
+     * @param backend {@link TorrentBackend} of the torrent
+     * @return Index of the largest file, {@code -1} if all files are empty
+     */
+    static int getLargestFile(TorrentBackend backend) {
+        long highestFileSize = 0;
+        int largestFile = -1;
+        for (int i = 0; i < backend.numFiles(); i++) {
+            long fileSize = backend.fileSize(i);
+            if (highestFileSize < fileSize) {
+                highestFileSize = fileSize;
+                largestFile = i;
             }
         }
-        if (firstPieceIndexLocal == -1) {
-            firstPieceIndexLocal = 0;
-        }
-        if (lastPieceIndexLocal == -1) {
-            lastPieceIndexLocal = piecePriorities.length - 1;
-        }
-        int pieceCount = lastPieceIndexLocal - firstPieceIndexLocal + 1;
-        int pieceLength = torrentHandle.torrentFile().pieceLength();
+        return largestFile;
+    }
+
+    /**
+     * Get the amount of pieces at the start and at the end of a file that are downloaded before the stream is prepared
+     *
+     * @param pieceIndex  {@link PieceIndex} of the file
+     * @param prepareSize Amount of bytes to prepare
+     * @return Amount of pieces at each end of the file
+     */
+    static int getPreparePieceCount(PieceIndex pieceIndex, long prepareSize) {
+        int pieceLength = pieceIndex.getPieceLength();
         int activePieceCount;
         if (pieceLength > 0) {
             activePieceCount = (int) (prepareSize / pieceLength);
@@ -236,14 +464,42 @@ public class Torrent implements AlertListener {
             activePieceCount = DEFAULT_PREPARE_COUNT;
         }
 
-        if (pieceCount < activePieceCount) {
-            activePieceCount = pieceCount / 2;
+        if (pieceIndex.getPieceCount() < activePieceCount) {
+            // A file of a single piece still needs that piece before the stream is prepared
+            activePieceCount = Math.max(1, pieceIndex.getPieceCount() / 2);
         }
+        return activePieceCount;
+    }
 
-        this.firstPieceIndex = firstPieceIndexLocal;
-        this.interestedPieceIndex = this.firstPieceIndex;
-        this.lastPieceIndex = lastPieceIndexLocal;
-        piecesToPrepare = activePieceCount;
+    /**
+     * Download the pieces a stream of the largest file prepares at low priority and nothing else. A stream of the torrent
+     * that is started later on finds them on disk and is prepared right away.
+     *
+     * @param backend     {@link TorrentBackend} of the torrent
+     * @param prepareSize Amount of bytes to prepare
+     */
+    static void prefetch(TorrentBackend backend, long prepareSize) {
+        int file = getLargestFile(backend);
+        if (file == -1) {
+            return;
+        }
+
+        for (int i = 0; i < backend.numFiles(); i++) {
+            backend.filePriority(i, i == file ? Priority.LOW : Priority.IGNORE);
+        }
+
+        PieceIndex pieceIndex = new PieceIndex(backend.pieceLength(), backend.fileOffset(file), backend.fileSize(file));
+        int preparePieceCount = getPreparePieceCount(pieceIndex, prepareSize);
+        int firstPiece = pieceIndex.getFirstPiece();
+        int lastPiece = pieceIndex.getLastPiece();
+        PiecePriorityPlanner priorities = new PiecePriorityPlanner(backend);
+        for (int i = firstPiece; i <= lastPiece; i++) {
+            boolean prepared = i < firstPiece + preparePieceCount || i > lastPiece - preparePieceCount;
+            priorities.set(i, prepared ? Priority.LOW : Priority.IGNORE);
+        }
+        priorities.apply();
+
+        backend.resume();
     }
 
     /**
@@ -252,10 +508,9 @@ public class Torrent implements AlertListener {
      * @return {@link String[]}
      */
     public String[] getFileNames() {
-        FileStorage fileStorage = torrentHandle.torrentFile().files();
-        String[] fileNames = new String[fileStorage.numFiles()];
-        for (int i = 0; i < fileStorage.numFiles(); i++) {
-            fileNames[i] = fileStorage.fileName(i);
+        String[] fileNames = new String[backend.numFiles()];
+        for (int i = 0; i < fileNames.length; i++) {
+            fileNames[i] = backend.fileName(i);
         }
         return fileNames;
     }
@@ -270,42 +525,106 @@ public class Torrent implements AlertListener {
 
         List<Integer> indices = new ArrayList<>();
 
-        Priority[] priorities = torrentHandle.piecePriorities();
-        for (int i = 0; i < priorities.length; i++) {
-            if (priorities[i] != Priority.IGNORE) {
-                torrentHandle.piecePriority(i, Priority.DEFAULT);
+        for (int i = 0; i < priorities.getPieceCount(); i++) {
+            if (priorities.get(i) != Priority.IGNORE) {
+                priorities.set(i, Priority.DEFAULT);
             }
         }
 
         for (int i = 0; i < piecesToPrepare; i++) {
             indices.add(lastPieceIndex - i);
-            torrentHandle.piecePriority(lastPieceIndex - i, Priority.TOP_PRIORITY);
-            torrentHandle.setPieceDeadline(lastPieceIndex - i, 1000);
+            priorities.set(lastPieceIndex - i, Priority.TOP_PRIORITY);
         }
 
         for (int i = 0; i < piecesToPrepare; i++) {
             indices.add(firstPieceIndex + i);
-            torrentHandle.piecePriority(firstPieceIndex + i, Priority.TOP_PRIORITY);
-            torrentHandle.setPieceDeadline(firstPieceIndex + i, 1000);
+            priorities.set(firstPieceIndex + i, Priority.TOP_PRIORITY);
         }
+        priorities.apply();
 
-        preparePieces = indices;
+        // The pieces at the start and the end are both needed before playback can start,
+        // pieces at the same distance from the start or the end get the same deadline
+        for (int i = 0; i < piecesToPrepare; i++) {
+            deadlines.schedule(lastPieceIndex - firstPieceIndex - i, i);
+            deadlines.schedule(i, i);
+        }
+
+        pieces = new PieceBitmap(lastPieceIndex - firstPieceIndex + 1);
+        pieceWaiters.setPieces(pieces);
 
-        hasPieces = new Boolean[lastPieceIndex - firstPieceIndex + 1];
-        Arrays.fill(hasPieces, false);
+        synchronized (prepareLock) {
+            preparePieces = indices;
+        }
 
-        TorrentInfo torrentInfo = torrentHandle.torrentFile();
-        TorrentStatus status = torrentHandle.status();
+        double blockCount = indices.size() * pieceIndex.getPieceLength() / backend.blockSize();
 
-        double blockCount = indices.size() * torrentInfo.pieceLength() / status.blockSize();
+        progress.setPrepareBlockCount(blockCount);
 
-        progressStep = 100 / blockCount;
+        backend.resume();
+
+        if (listener != null) {
+            listener.onStreamStarted(this);
+        }
+
+        restoreFinishedPieces();
+    }
+
+    /**
+     * Mark the pieces of the file that are on disk already as finished. libtorrent does not send piece finished alerts
+     * for pieces that were restored from resume data or found while checking the files, or for pieces that finished
+     * before this torrent was added as alert listener.
+     */
+    void restoreFinishedPieces() {
+        PieceBitmap pieces = this.pieces;
+        if (pieces == null || pieces.isComplete()) {
+            return;
+        }
+
+        boolean restored = false;
+        for (int i = 0; i < pieces.size(); i++) {
+            if (!pieces.get(i) && backend.havePiece(firstPieceIndex + i) && pieces.set(i)) {
+                deadlines.pieceFinished(i);
+                restored = true;
+            }
+        }
+
+        if (!restored) {
+            return;
+        }
 
-        torrentStreamReferences.clear();
+        pieceWaiters.wakeAll();
+        if (state == State.STARTING && removeFinishedPreparePieces(-1)) {
+            streamPrepared();
+        }
+    }
 
-        torrentHandle.resume();
+    /**
+     * Remove the finished pieces from the pieces that prepare the stream. Called from the alert thread and from the
+     * thread that creates the torrent, only one call sees the last prepare piece finish.
+     *
+     * @param piece Absolute index of a piece that just finished, {@code -1} to only check the finished pieces
+     * @return {@code true} if this call found all prepare pieces finished, only ever returned once per download
+     */
+    private boolean removeFinishedPreparePieces(int piece) {
+        synchronized (prepareLock) {
+            if (preparePieces == null) {
+                return false;
+            }
 
-        listener.onStreamStarted(this);
+            PieceBitmap pieces = this.pieces;
+            Iterator<Integer> piecesIterator = preparePieces.iterator();
+            while (piecesIterator.hasNext()) {
+                int index = piecesIterator.next();
+                if (index == piece || (pieces != null && pieces.get(index - firstPieceIndex))) {
+                    piecesIterator.remove();
+                }
+            }
+            if (!preparePieces.isEmpty()) {
+                return false;
+            }
+            preparePieces = null;
+            return true;
+        }
     }
 
     /**
@@ -315,12 +634,95 @@ public class Torrent implements AlertListener {
      * @return {@code true} if downloaded, {@code false} if not
      */
     public boolean hasBytes(long bytes) {
-        if (hasPieces == null) {
+        PieceBitmap pieces = this.pieces;
+        if (pieces == null) {
             return false;
         }
 
-        int pieceIndex = (int) (bytes / torrentHandle.torrentFile().pieceLength());
-        return hasPieces[pieceIndex];
+        return pieces.get(pieceIndex.getPiece(bytes));
+    }
+
+    /**
+     * Get the amount of bytes that are downloaded and can be read without waiting, starting at the specified bytes
+     *
+     * @param bytes The bytes you're interested in
+     * @param max   Maximum amount of bytes to return
+     * @return Amount of contiguous bytes available from {@code bytes}, at most {@code max}
+     */
+    long getAvailableBytes(long bytes, long max) {
+        PieceBitmap pieces = this.pieces;
+        if (!hasBytes(bytes)) {
+            return 0;
+        }
+
+        PieceIndex pieceIndex = this.pieceIndex;
+        int missingPiece = pieces.nextClearBit(pieceIndex.getPiece(bytes));
+        if (missingPiece == -1) {
+            return Math.min(pieceIndex.getFileSize() - bytes, max);
+        }
+        return Math.min(pieceIndex.getPieceStart(missingPiece) - bytes, max);
+    }
+
+    /**
+     * Block the calling thread until the piece that contains the specified bytes is downloaded.
+     * Only a finished piece that contains these bytes wakes the thread.
+     *
+     * @param bytes         The bytes you're interested in
+     * @param timeoutMillis Maximum time to wait in milliseconds, {@code 0} to wait without timeout
+     * @param waiter        {@link PieceWaitRegistry.Waiter} of the calling reader, can be used to cancel the wait
+     * @return {@code true} if downloaded, {@code false} on timeout, cancellation or interruption
+     */
+    boolean waitForBytes(long bytes, long timeoutMillis, PieceWaitRegistry.Waiter waiter) {
+        int piece = pieceIndex.getPiece(bytes);
+        if (pieceWaiters.isFinished(piece)) {
+            return true;
+        }
+
+        long stallStart = clock.nanoTime();
+        boolean finished = pieceWaiters.await(piece, timeoutMillis, waiter);
+        metrics.stall(clock.nanoTime() - stallStart);
+        return finished;
+    }
+
+    /**
+     * Block the calling thread until the piece that contains the specified bytes is downloaded, checking at every
+     * interval if the reader still wants them. The whole wait counts as a single stall.
+     *
+     * @param bytes          The bytes you're interested in
+     * @param intervalMillis Time between the checks in milliseconds
+     * @param waiter         {@link PieceWaitRegistry.Waiter} of the calling reader, can be used to cancel the wait
+     * @param condition      {@link WaitCondition} that is checked at every interval
+     * @return {@code true} if downloaded, {@code false} when the reader gave up, on cancellation or interruption
+     * @throws IOException when the condition could not be checked
+     */
+    boolean waitForBytes(long bytes, long intervalMillis, PieceWaitRegistry.Waiter waiter, WaitCondition condition)
+            throws IOException {
+        int piece = pieceIndex.getPiece(bytes);
+        if (pieceWaiters.isFinished(piece)) {
+            return true;
+        }
+
+        long stallStart = clock.nanoTime();
+        try {
+            while (!pieceWaiters.await(piece, intervalMillis, waiter)) {
+                if (pieceWaiters.isCanceled() || waiter.isCanceled() || Thread.currentThread().isInterrupted()
+                        || !condition.keepWaiting()) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            metrics.stall(clock.nanoTime() - stallStart);
+        }
+    }
+
+    /**
+     * Get the performance metrics of this stream
+     *
+     * @return {@link StreamMetrics} snapshot
+     */
+    public StreamMetrics getMetrics() {
+        return metrics.snapshot();
     }
 
     /**
@@ -331,46 +733,146 @@ public class Torrent implements AlertListener {
      * @param bytes The bytes you're interested in
      */
     public void setInterestedBytes(long bytes) {
-        if (hasPieces == null && bytes >= 0) {
+        PieceBitmap pieces = this.pieces;
+        if (pieces == null || bytes < 0) {
             return;
         }
 
-        int pieceIndex = (int) (bytes / torrentHandle.torrentFile().pieceLength());
+        int pieceIndex = this.pieceIndex.getPiece(bytes);
         interestedPieceIndex = pieceIndex;
-        if (!hasPieces[pieceIndex] && torrentHandle.piecePriority(pieceIndex + firstPieceIndex) != Priority.TOP_PRIORITY) {
-            interestedPieceIndex = pieceIndex;
-            int pieces = 5;
-            for (int i = pieceIndex; i < hasPieces.length; i++) {
-                // Set full priority to first found piece that is not confirmed finished
-                if (!hasPieces[i]) {
-                    torrentHandle.piecePriority(i + firstPieceIndex, Priority.TOP_PRIORITY);
-                    torrentHandle.setPieceDeadline(i + firstPieceIndex, 1000);
-                    pieces--;
-                    if (pieces == 0) {
-                        break;
-                    }
-                }
+        synchronized (readAheadLock) {
+            if (pieceIndex < readAheadStart || pieceIndex >= readAheadEnd) {
+                seek(pieces, pieceIndex);
+            } else {
+                movePlayhead(pieceIndex);
+                fillReadAheadWindow(pieces, pieceIndex);
             }
         }
     }
 
     /**
-     * Checks if the interesting pieces are downloaded already
+     * Move the read-ahead window to a new position. The pieces of the previous window that are not in the new window
+     * go back to normal priority and lose their deadline, so they don't compete with the pieces that are needed now.
+     * The pieces that are needed to prepare the stream keep their priority.
      *
-     * @return {@code true} if the 5 pieces that were selected using `setInterestedBytes` are all reported complete including the `nextPieces`, {@code false} if not
+     * @param pieces {@link PieceBitmap} of finished pieces
+     * @param piece  Piece of the new playback position
      */
-    public boolean hasInterestedBytes(int nextPieces) {
-        for (int i = 0; i < 5 + nextPieces; i++) {
-            int index = interestedPieceIndex + i;
-            if (hasPieces.length <= index || index < 0) {
-                continue;
+    private void seek(PieceBitmap pieces, int piece) {
+        int newWindowEnd = piece + readAhead.getWindowSize();
+        int demoteFrom = Math.max(readAheadStart, piecesToPrepare);
+        int demoteTo = Math.min(readAheadEnd, pieces.size() - piecesToPrepare);
+        for (int i = pieces.nextClearBit(demoteFrom); i != -1 && i < demoteTo; i = pieces.nextClearBit(i + 1)) {
+            if (i < piece || i >= newWindowEnd) {
+                priorities.set(i + firstPieceIndex, Priority.DEFAULT);
             }
+        }
+        deadlines.clear(demoteFrom, Math.min(piece, demoteTo));
+        deadlines.clear(Math.max(newWindowEnd, demoteFrom), demoteTo);
 
-            if (!hasPieces[interestedPieceIndex + i]) {
-                return false;
+        movePlayhead(piece);
+        readAheadStart = piece;
+        readAheadEnd = piece;
+        fillReadAheadWindow(pieces, piece);
+    }
+
+    /**
+     * Register bytes that were read by a player. All bytes are used to size the read-ahead window, the playback position
+     * only follows reads inside the read-ahead window or right after it. A read of the index at the end of the file or
+     * a second connection elsewhere in the file leaves the window of the sequential reader alone, a jump of the
+     * sequential reader itself is handled by {@link #setInterestedBytes(long)}.
+     *
+     * @param position Position in the video file the bytes were read from
+     * @param count    Amount of bytes
+     */
+    void bytesConsumed(long position, long count) {
+        metrics.firstByte();
+        readAhead.bytesConsumed(count);
+
+        int piece = pieceIndex.getPiece(position + count - 1);
+        synchronized (readAheadLock) {
+            if (piece >= readAheadStart && piece <= readAheadEnd) {
+                movePlayhead(piece);
+            }
+        }
+    }
+
+    /**
+     * Refresh the piece deadlines and the start of the read-ahead window when the playback position moved to another piece
+     *
+     * @param piece Piece of the playback position
+     */
+    private void movePlayhead(int piece) {
+        if (piece != playheadPiece) {
+            playheadPiece = piece;
+            deadlines.update(piece);
+            advanceReadAheadWindow(piece);
+        }
+    }
+
+    /**
+     * Move the start of the read-ahead window forward along with the playback position. Missing pieces that playback
+     * passed go back to normal priority, and a later seek back to them is handled as a seek.
+     *
+     * @param piece Piece of the playback position
+     */
+    private void advanceReadAheadWindow(int piece) {
+        PieceBitmap pieces = this.pieces;
+        if (pieces == null) {
+            return;
+        }
+
+        synchronized (readAheadLock) {
+            int start = Math.min(piece, readAheadEnd);
+            if (start <= readAheadStart) {
+                return;
+            }
+
+            int demoteFrom = Math.max(readAheadStart, piecesToPrepare);
+            int demoteTo = Math.min(start, pieces.size() - piecesToPrepare);
+            for (int i = pieces.nextClearBit(demoteFrom); i != -1 && i < demoteTo; i = pieces.nextClearBit(i + 1)) {
+                priorities.set(i + firstPieceIndex, Priority.DEFAULT);
             }
+            priorities.apply();
+            readAheadStart = start;
         }
-        return true;
+    }
+
+    /**
+     * Set full priority to the pieces that are not confirmed finished in the read-ahead window starting at the specified piece.
+     * The size of the window is determined by the {@link ReadAheadController}. Priority changes that are pending in the
+     * planner are applied together with the window.
+     *
+     * @param pieces    {@link PieceBitmap} of finished pieces
+     * @param fromPiece First piece of the window
+     */
+    private void fillReadAheadWindow(PieceBitmap pieces, int fromPiece) {
+        // Callers hold readAheadLock
+        int end = Math.min(fromPiece + readAhead.getWindowSize(), pieces.size());
+        int start = Math.max(fromPiece, readAheadEnd);
+        for (int i = pieces.nextClearBit(start); i != -1 && i < end; i = pieces.nextClearBit(i + 1)) {
+            priorities.set(i + firstPieceIndex, Priority.TOP_PRIORITY);
+        }
+        priorities.apply();
+        for (int i = pieces.nextClearBit(start); i != -1 && i < end; i = pieces.nextClearBit(i + 1)) {
+            deadlines.schedule(i, i - playheadPiece);
+        }
+        readAheadEnd = Math.max(readAheadEnd, end);
+    }
+
+    /**
+     * Checks if the interesting pieces are downloaded already
+     *
+     * @return {@code true} if the 5 pieces that were selected using `setInterestedBytes` are all reported complete including the `nextPieces`, {@code false} if not
+     */
+    public boolean hasInterestedBytes(int nextPieces) {
+        PieceBitmap pieces = this.pieces;
+        if (pieces == null) {
+            return false;
+        }
+
+        int missingPiece = pieces.nextClearBit(interestedPieceIndex);
+        return missingPiece == -1 || missingPiece >= interestedPieceIndex + 5 + nextPieces;
     }
 
     /**
@@ -404,12 +906,14 @@ public class Torrent implements AlertListener {
     private void startSequentialMode() {
         resetPriorities();
 
-        if (hasPieces == null) {
-            torrentHandle.setFlags(torrentHandle.getFlags().and_(TorrentFlags.SEQUENTIAL_DOWNLOAD));
+        if (pieces == null) {
+            priorities.apply();
+            backend.setSequentialDownload();
         } else {
-            for (int i = firstPieceIndex + piecesToPrepare; i < firstPieceIndex + piecesToPrepare + SEQUENTIAL_CONCURRENT_PIECES_COUNT; i++) {
-                torrentHandle.piecePriority(i, Priority.TOP_PRIORITY);
-                torrentHandle.setPieceDeadline(i, 1000);
+            synchronized (readAheadLock) {
+                readAheadStart = piecesToPrepare;
+                readAheadEnd = piecesToPrepare;
+                fillReadAheadWindow(pieces, piecesToPrepare);
             }
         }
     }
@@ -426,69 +930,98 @@ public class Torrent implements AlertListener {
     /**
      * Piece finished
      *
-     * @param alert
+     * @param piece Index of the piece in the torrent
      */
-    private void pieceFinished(PieceFinishedAlert alert) {
-        if (state == State.STREAMING && hasPieces != null) {
-            int pieceIndex = alert.pieceIndex() - firstPieceIndex;
-            hasPieces[pieceIndex] = true;
+    void pieceFinished(int piece) {
+        PieceBitmap pieces = this.pieces;
+        if (state == State.STREAMING && pieces != null) {
+            int pieceIndex = piece - firstPieceIndex;
+            recordPieceLatency(pieceIndex);
+            if (pieces.set(pieceIndex)) {
+                readAhead.pieceFinished();
+            }
 
             if (pieceIndex >= interestedPieceIndex) {
-                for (int i = pieceIndex; i < hasPieces.length; i++) {
-                    // Set full priority to first found piece that is not confirmed finished
-                    if (!hasPieces[i]) {
-                        torrentHandle.piecePriority(i + firstPieceIndex, Priority.TOP_PRIORITY);
-                        torrentHandle.setPieceDeadline(i + firstPieceIndex, 1000);
-                        break;
+                // Slide the window along with the first piece that is not confirmed finished
+                int missingPiece = pieces.nextClearBit(interestedPieceIndex);
+                if (missingPiece != -1) {
+                    synchronized (readAheadLock) {
+                        fillReadAheadWindow(pieces, missingPiece);
                     }
                 }
             }
         } else {
-            Iterator<Integer> piecesIterator = preparePieces.iterator();
-            while (piecesIterator.hasNext()) {
-                int index = piecesIterator.next();
-                if (index == alert.pieceIndex()) {
-                    piecesIterator.remove();
-                }
+            recordPieceLatency(piece - firstPieceIndex);
+            if (pieces != null && pieces.set(piece - firstPieceIndex)) {
+                readAhead.pieceFinished();
             }
 
-            if (hasPieces != null) {
-                hasPieces[alert.pieceIndex() - firstPieceIndex] = true;
+            if (removeFinishedPreparePieces(piece)) {
+                streamPrepared();
             }
+        }
+
+        pieceWaiters.pieceFinished(piece - firstPieceIndex);
+    }
 
-            if (preparePieces.size() == 0) {
-                startSequentialMode();
+    /**
+     * All pieces that are needed to prepare the stream are finished, continue with the sequential download
+     */
+    private void streamPrepared() {
+        startSequentialMode();
 
-                prepareProgress = 100d;
-                sendStreamProgress();
-                state = State.STREAMING;
+        progress.prepared();
+        sendStreamProgress(true);
+        state = State.STREAMING;
 
-                if (listener != null) {
-                    listener.onStreamReady(this);
-                }
-            }
+        if (listener != null) {
+            listener.onStreamReady(this);
         }
     }
 
-    private void blockFinished(BlockFinishedAlert alert) {
-        for (Integer index : preparePieces) {
-            if (index == alert.pieceIndex()) {
-                prepareProgress += progressStep;
-                break;
-            }
+    private void recordPieceLatency(int piece) {
+        long latency = deadlines.pieceFinished(piece);
+        if (latency >= 0) {
+            metrics.pieceLatency(latency);
+        }
+    }
+
+    /**
+     * Block finished
+     *
+     * @param piece Index of the piece in the torrent the block belongs to
+     */
+    void blockFinished(int piece) {
+        if (state == State.STARTING && isPreparePiece(piece - firstPieceIndex)) {
+            progress.prepareBlockFinished();
         }
 
-        sendStreamProgress();
+        sendStreamProgress(false);
     }
 
-    private void sendStreamProgress() {
-        TorrentStatus status = torrentHandle.status();
-        float progress = status.progress() * 100;
-        int seeds = status.numSeeds();
-        int downloadSpeed = status.downloadPayloadRate();
+    /**
+     * Check if a piece is one of the pieces at the start or the end of the file that are needed to prepare the stream
+     *
+     * @param piece Piece index relative to the first piece of the file
+     * @return {@code true} if needed to prepare the stream
+     */
+    private boolean isPreparePiece(int piece) {
+        return (piece >= 0 && piece < piecesToPrepare) || (piece > lastPieceIndex - firstPieceIndex - piecesToPrepare && piece <= lastPieceIndex - firstPieceIndex);
+    }
 
-        if (listener != null && prepareProgress >= 1) {
-            listener.onStreamProgress(this, new StreamStatus(progress, prepareProgress.intValue(), seeds, downloadSpeed));
+    /**
+     * Publish the stream progress, at most once per progress interval
+     *
+     * @param force {@code true} to publish regardless of the interval
+     */
+    private void sendStreamProgress(boolean force) {
+        if (listener == null || !progress.isDue(force)) {
+            return;
+        }
+
+        StreamStatus status = progress.publish(backend.status());
+        if (status != null) {
+            listener.onStreamProgress(this, status);
         }
     }
 
@@ -496,35 +1029,42 @@ public class Torrent implements AlertListener {
     public int[] types() {
         return new int[]{
                 AlertType.PIECE_FINISHED.swig(),
-                AlertType.BLOCK_FINISHED.swig()
+                AlertType.BLOCK_FINISHED.swig(),
+                AlertType.TORRENT_CHECKED.swig()
         };
     }
 
     @Override
     public void alert(Alert<?> alert) {
+        // All torrents in the session share the alerts, only handle the ones of this torrent
+        if (infoHash == null || !(alert instanceof TorrentAlert) || !infoHash.equals(((TorrentAlert<?>) alert).handle().infoHash())) {
+            return;
+        }
+
         switch (alert.type()) {
             case PIECE_FINISHED:
-                pieceFinished((PieceFinishedAlert) alert);
+                pieceFinished(((PieceFinishedAlert) alert).pieceIndex());
                 break;
             case BLOCK_FINISHED:
-                blockFinished((BlockFinishedAlert) alert);
+                blockFinished(((BlockFinishedAlert) alert).pieceIndex());
+                break;
+            case TORRENT_CHECKED:
+                restoreFinishedPieces();
                 break;
             default:
                 break;
         }
+    }
 
-        Iterator<WeakReference<TorrentInputStream>> i = torrentStreamReferences.iterator();
-
-        while (i.hasNext()) {
-            WeakReference<TorrentInputStream> reference = i.next();
-            TorrentInputStream inputStream = reference.get();
-
-            if (inputStream == null) {
-                i.remove();
-                continue;
-            }
+    /**
+     * Checked by {@link #waitForBytes(long, long, PieceWaitRegistry.Waiter, WaitCondition)} while a reader waits
+     */
+    interface WaitCondition {
 
-            inputStream.alert(alert);
-        }
+        /**
+         * @return {@code true} if the reader still wants the bytes
+         */
+        boolean keepWaiting() throws IOException;
     }
+
 }
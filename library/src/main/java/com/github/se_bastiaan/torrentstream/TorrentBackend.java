@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import org.libtorrent4j.Priority;
+import org.libtorrent4j.TorrentHandle;
+
+/**
+ * The operations of a torrent download that {@link Torrent} uses.
+ * <p/>
+ * {@link LibTorrentBackend} forwards them to a libtorrent {@link TorrentHandle}. Other implementations make it possible
+ * to run a {@link Torrent} without libtorrent, for example against a simulated swarm. Such an implementation reports
+ * finished pieces by calling {@link Torrent#pieceFinished(int)} and {@link Torrent#blockFinished(int)}.
+ * <p/>
+ * Piece and file indices are indices in the whole torrent.
+ */
+interface TorrentBackend {
+
+    /**
+     * @return libtorrent {@link TorrentHandle}, {@code null} when the torrent is not downloaded by libtorrent
+     */
+    TorrentHandle torrentHandle();
+
+    /**
+     * @return {@link Clock} the torrent runs on
+     */
+    Clock clock();
+
+    /**
+     * @return Hex encoded info-hash
+     */
+    String infoHash();
+
+    String name();
+
+    String savePath();
+
+    int pieceLength();
+
+    int numFiles();
+
+    String fileName(int fileIndex);
+
+    /**
+     * @return Path of the file relative to {@link #savePath()}
+     */
+    String filePath(int fileIndex);
+
+    long fileSize(int fileIndex);
+
+    /**
+     * @return Byte offset of the file in the torrent
+     */
+    long fileOffset(int fileIndex);
+
+    Priority[] piecePriorities();
+
+    void piecePriority(int pieceIndex, Priority priority);
+
+    /**
+     * Replace the priorities of all pieces at once
+     *
+     * @param priorities Priority of every piece of the torrent
+     */
+    void prioritizePieces(Priority[] priorities);
+
+    void filePriority(int fileIndex, Priority priority);
+
+    /**
+     * @param pieceIndex Index of the piece
+     * @param deadline   Milliseconds from now
+     */
+    void setPieceDeadline(int pieceIndex, int deadline);
+
+    void resetPieceDeadline(int pieceIndex);
+
+    /**
+     * @return {@code true} if the piece is downloaded and verified
+     */
+    boolean havePiece(int pieceIndex);
+
+    /**
+     * Download the pieces in order instead of rarest first
+     */
+    void setSequentialDownload();
+
+    /**
+     * @return Size of the blocks pieces are requested in
+     */
+    int blockSize();
+
+    Status status();
+
+    void resume();
+
+    void pause();
+
+    /**
+     * Download status of a torrent
+     */
+    final class Status {
+        /**
+         * Progress of the whole torrent between 0 and 1
+         */
+        final float progress;
+        final int seeds;
+        /**
+         * Payload download rate in bytes per second
+         */
+        final int downloadRate;
+
+        Status(float progress, int seeds, int downloadRate) {
+            this.progress = progress;
+            this.seeds = seeds;
+            this.downloadRate = downloadRate;
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import com.github.se_bastiaan.torrentstream.listeners.TorrentListener;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Delivers {@link TorrentListener} events to the registered listeners, each on the {@link Executor} it was registered with.
+ * <p/>
+ * The listeners are kept in a copy-on-write list, so events can be dispatched from any thread while listeners are added
+ * or removed. Progress events are coalesced per listener and torrent: when a progress event is still waiting to be
+ * delivered, a newer one replaces it instead of being queued after it.
+ */
+final class TorrentEventDispatcher implements TorrentListener {
+
+    private final CopyOnWriteArrayList<Registration> registrations = new CopyOnWriteArrayList<>();
+
+    /**
+     * Register a listener, registering the same listener again replaces its executor
+     *
+     * @param listener {@link TorrentListener}
+     * @param executor {@link Executor} the events are delivered on
+     */
+    void addListener(TorrentListener listener, Executor executor) {
+        removeListener(listener);
+        registrations.add(new Registration(listener, executor));
+    }
+
+    void removeListener(TorrentListener listener) {
+        for (Registration registration : registrations) {
+            if (registration.listener == listener) {
+                registrations.remove(registration);
+            }
+        }
+    }
+
+    @Override
+    public void onStreamPrepared(final Torrent torrent) {
+        for (final Registration registration : registrations) {
+            registration.executor.execute(() -> registration.listener.onStreamPrepared(torrent));
+        }
+    }
+
+    @Override
+    public void onStreamStarted(final Torrent torrent) {
+        for (final Registration registration : registrations) {
+            registration.executor.execute(() -> registration.listener.onStreamStarted(torrent));
+        }
+    }
+
+    @Override
+    public void onStreamError(final Torrent torrent, final Exception e) {
+        for (final Registration registration : registrations) {
+            registration.executor.execute(() -> registration.listener.onStreamError(torrent, e));
+        }
+    }
+
+    @Override
+    public void onStreamReady(final Torrent torrent) {
+        for (final Registration registration : registrations) {
+            registration.executor.execute(() -> registration.listener.onStreamReady(torrent));
+        }
+    }
+
+    @Override
+    public void onStreamProgress(final Torrent torrent, final StreamStatus status) {
+        for (final Registration registration : registrations) {
+            registration.progress(torrent, status);
+        }
+    }
+
+    @Override
+    public void onStreamStopped() {
+        for (final Registration registration : registrations) {
+            registration.executor.execute(registration.listener::onStreamStopped);
+        }
+    }
+
+    private static final class Registration {
+
+        final TorrentListener listener;
+        final Executor executor;
+        final Map<Torrent, StreamStatus> pendingProgress = new ConcurrentHashMap<>();
+
+        Registration(TorrentListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        void progress(final Torrent torrent, StreamStatus status) {
+            // Only schedule a delivery when there is none pending, a pending delivery picks up the latest status
+            if (pendingProgress.put(torrent, status) == null) {
+                executor.execute(() -> {
+                    StreamStatus latest = pendingProgress.remove(torrent);
+                    if (latest != null) {
+                        listener.onStreamProgress(torrent, latest);
+                    }
+                });
+            }
+        }
+    }
+
+}
@@ -1,116 +1,93 @@
 package com.github.se_bastiaan.torrentstream;
 
-import org.libtorrent4j.AlertListener;
-import org.libtorrent4j.alerts.Alert;
-import org.libtorrent4j.alerts.AlertType;
-
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
-class TorrentInputStream extends FilterInputStream implements AlertListener {
+class TorrentInputStream extends FilterInputStream {
+    private final PieceWaitRegistry.Waiter waiter = new PieceWaitRegistry.Waiter();
     private Torrent torrent;
-    private boolean stopped;
     private long location;
+    private final long fileSize;
 
     TorrentInputStream(Torrent torrent, InputStream inputStream) {
         super(inputStream);
 
         this.torrent = torrent;
+        this.fileSize = torrent.getVideoFileSize();
     }
 
     @Override
     protected void finalize() throws Throwable {
-        synchronized (this) {
-            stopped = true;
-            notifyAll();
-        }
+        waiter.cancel();
 
         super.finalize();
     }
 
-    private synchronized boolean waitForPiece(long offset) {
-        while (!Thread.currentThread().isInterrupted() && !stopped) {
-            try {
-                if (torrent.hasBytes(offset)) {
-                    return true;
-                }
-
-                wait();
-            } catch (InterruptedException ex) {
-                Thread.currentThread().interrupt();
-            }
-        }
-
-        return false;
+    private boolean waitForPiece(long offset) {
+        return !waiter.isCanceled() && torrent.waitForBytes(offset, 0, waiter);
     }
 
     @Override
     public synchronized int read() throws IOException {
-        if (!waitForPiece(location)) {
+        if (location >= fileSize || !waitForPiece(location)) {
             return -1;
         }
 
-        location++;
+        int read = super.read();
+        if (read != -1) {
+            torrent.bytesConsumed(location, 1);
+            location++;
+        }
 
-        return super.read();
+        return read;
     }
 
+    /**
+     * Read up to {@code length} bytes. Only waits for the piece at the current position,
+     * the read returns the bytes that are available from there instead of waiting for the whole range.
+     */
     @Override
     public synchronized int read(byte[] buffer, int offset, int length) throws IOException {
-        int pieceLength = torrent.getTorrentHandle().torrentFile().pieceLength();
+        if (length == 0) {
+            return 0;
+        }
 
-        for (int i = 0; i < length; i += pieceLength) {
-            if (!waitForPiece(location + i)) {
-                return -1;
-            }
+        if (location >= fileSize || !waitForPiece(location)) {
+            return -1;
         }
 
-        location += length;
+        int available = (int) torrent.getAvailableBytes(location, length);
+        int read = super.read(buffer, offset, available);
+        if (read > 0) {
+            torrent.bytesConsumed(location, read);
+            location += read;
+        }
+
+        return read;
+    }
 
-        return super.read(buffer, offset, length);
+    @Override
+    public synchronized int available() throws IOException {
+        return (int) Math.min(torrent.getAvailableBytes(location, Integer.MAX_VALUE), super.available());
     }
 
     @Override
     public void close() throws IOException {
-        synchronized (this) {
-            stopped = true;
-            notifyAll();
-        }
+        waiter.cancel();
 
         super.close();
     }
 
     @Override
     public synchronized long skip(long n) throws IOException {
-        location += n;
-        return super.skip(n);
+        long skipped = super.skip(n);
+        location += skipped;
+        return skipped;
     }
 
     @Override
     public boolean markSupported() {
         return false;
     }
-
-    private synchronized void pieceFinished() {
-        notifyAll();
-    }
-
-    @Override
-    public int[] types() {
-        return new int[]{
-                AlertType.PIECE_FINISHED.swig(),
-        };
-    }
-
-    @Override
-    public void alert(Alert<?> alert) {
-        switch (alert.type()) {
-            case PIECE_FINISHED:
-                pieceFinished();
-                break;
-            default:
-                break;
-        }
-    }
-}
\ No newline at end of file
+}
@@ -34,6 +34,15 @@ public final class TorrentOptions {
     Boolean anonymousMode = false;
     Boolean autoDownload = true;
     Long prepareSize = 15 * 1024L * 1024L;
+    Integer readAheadSeconds = 20;
+    Integer progressInterval = 250;
+    Boolean saveResumeData = true;
+    Long metadataCacheSize = 32 * 1024L * 1024L;
+    Integer prefetchDownloadSpeed = 512 * 1024;
+    Long contentCacheSize = 0L;
+    Integer dhtBootstrapNodes = 0;
+    Integer dhtBootstrapTimeout = 10 * 1000;
+    PerformanceProfile performanceProfile;
 
     private TorrentOptions() {
         // Unused
@@ -54,6 +63,15 @@ public final class TorrentOptions {
         this.anonymousMode = torrentOptions.anonymousMode;
         this.autoDownload = torrentOptions.autoDownload;
         this.prepareSize = torrentOptions.prepareSize;
+        this.readAheadSeconds = torrentOptions.readAheadSeconds;
+        this.progressInterval = torrentOptions.progressInterval;
+        this.saveResumeData = torrentOptions.saveResumeData;
+        this.metadataCacheSize = torrentOptions.metadataCacheSize;
+        this.prefetchDownloadSpeed = torrentOptions.prefetchDownloadSpeed;
+        this.contentCacheSize = torrentOptions.contentCacheSize;
+        this.dhtBootstrapNodes = torrentOptions.dhtBootstrapNodes;
+        this.dhtBootstrapTimeout = torrentOptions.dhtBootstrapTimeout;
+        this.performanceProfile = torrentOptions.performanceProfile;
     }
 
     public Builder toBuilder() {
@@ -112,6 +130,86 @@ public final class TorrentOptions {
             return this;
         }
 
+        /**
+         * Set the amount of seconds of playback that should be downloaded ahead of the playback position with the highest priority.
+         * The amount of pieces is adapted to the measured playback and download rate.
+         */
+        public Builder readAheadSeconds(Integer readAheadSeconds) {
+            torrentOptions.readAheadSeconds = readAheadSeconds;
+            return this;
+        }
+
+        /**
+         * Set the minimum interval in milliseconds between two {@link StreamStatus} updates of a stream
+         */
+        public Builder progressInterval(Integer progressInterval) {
+            torrentOptions.progressInterval = progressInterval;
+            return this;
+        }
+
+        /**
+         * Save the resume data of streams when they are stopped and periodically while streaming, so a new stream of the
+         * same torrent can use the pieces on disk without checking them again. Has no effect when files are removed after stop.
+         */
+        public Builder saveResumeData(Boolean enable) {
+            torrentOptions.saveResumeData = enable;
+            return this;
+        }
+
+        /**
+         * Set the maximum size in bytes of the metadata cache in the save location. Torrents that were opened before are
+         * loaded from the cache instead of being downloaded or fetched from the swarm again. {@code 0} disables the cache.
+         */
+        public Builder metadataCacheSize(Long metadataCacheSize) {
+            torrentOptions.metadataCacheSize = metadataCacheSize;
+            return this;
+        }
+
+        /**
+         * Set the maximum download speed in bytes per second of each torrent that is prefetched with
+         * {@link TorrentStream#prefetch(java.util.List)}, so prefetching leaves the bandwidth to the active streams.
+         * {@code 0} removes the limit.
+         */
+        public Builder prefetchDownloadSpeed(Integer prefetchDownloadSpeed) {
+            torrentOptions.prefetchDownloadSpeed = prefetchDownloadSpeed;
+            return this;
+        }
+
+        /**
+         * Set the maximum size in bytes of the downloaded content that is kept in the save location. When streams are
+         * stopped, the content of the least recently streamed torrents is deleted until the total fits, torrents that
+         * are streaming or prefetched are kept. {@code 0} keeps all content. Has no effect when files are removed after stop.
+         */
+        public Builder contentCacheSize(Long contentCacheSize) {
+            torrentOptions.contentCacheSize = contentCacheSize;
+            return this;
+        }
+
+        /**
+         * Let the first magnet that is looked up wait until the DHT knows a minimum amount of nodes, so its peers are
+         * found with the first lookup. {@code 0} nodes disables the wait.
+         *
+         * @param minNodes Minimum amount of DHT nodes
+         * @param timeout  Maximum time to wait in milliseconds
+         */
+        public Builder dhtBootstrap(Integer minNodes, Integer timeout) {
+            torrentOptions.dhtBootstrapNodes = minNodes;
+            torrentOptions.dhtBootstrapTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * Tune libtorrent for a workload, see {@link PerformanceProfile}. Without a profile the libtorrent defaults are used.
+         * The profile also sets the maximum amount of connections, options that are set after the profile override it.
+         */
+        public Builder performanceProfile(PerformanceProfile profile) {
+            torrentOptions.performanceProfile = profile;
+            if (profile != null) {
+                torrentOptions.maxConnections = PerformanceSettings.getMaxConnections(profile, PerformanceSettings.getMemoryClass());
+            }
+            return this;
+        }
+
         public Builder listeningPort(Integer port) {
             torrentOptions.listeningPort = port;
             return this;
@@ -20,6 +20,7 @@ import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
 
+import org.libtorrent4j.AddTorrentParams;
 import org.libtorrent4j.Priority;
 import org.libtorrent4j.SessionManager;
 import org.libtorrent4j.SessionParams;
@@ -27,66 +28,200 @@ import org.libtorrent4j.SettingsPack;
 import org.libtorrent4j.TorrentFlags;
 import org.libtorrent4j.TorrentHandle;
 import org.libtorrent4j.TorrentInfo;
+import org.libtorrent4j.Sha1Hash;
 import org.libtorrent4j.alerts.AddTorrentAlert;
+import org.libtorrent4j.alerts.MetadataReceivedAlert;
+import org.libtorrent4j.alerts.SaveResumeDataAlert;
+import org.libtorrent4j.alerts.SaveResumeDataFailedAlert;
 import org.libtorrent4j.swig.settings_pack;
 import org.libtorrent4j.swig.torrent_flags_t;
 
+import com.github.se_bastiaan.torrentstream.exceptions.AlreadyStreamingException;
 import com.github.se_bastiaan.torrentstream.exceptions.DirectoryModifyException;
 import com.github.se_bastiaan.torrentstream.exceptions.NotInitializedException;
 import com.github.se_bastiaan.torrentstream.exceptions.TorrentInfoException;
 import com.github.se_bastiaan.torrentstream.listeners.DHTStatsAlertListener;
+import com.github.se_bastiaan.torrentstream.listeners.MetadataReceivedAlertListener;
+import com.github.se_bastiaan.torrentstream.listeners.ResumeDataAlertListener;
 import com.github.se_bastiaan.torrentstream.listeners.TorrentAddedAlertListener;
 import com.github.se_bastiaan.torrentstream.listeners.TorrentListener;
-import com.github.se_bastiaan.torrentstream.utils.FileUtils;
 import com.github.se_bastiaan.torrentstream.utils.ThreadUtils;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Queue;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class TorrentStream {
 
     private static final String LIBTORRENT_THREAD_NAME = "TORRENTSTREAM_LIBTORRENT", STREAMING_THREAD_NAME = "TORRENTSTREAMER_STREAMING";
+    private static final String CONTENT_CACHE_THREAD_NAME = "TORRENTSTREAM_CONTENT_CACHE";
+    private static final String RESUME_DATA_DIRECTORY = ".resume";
+    private static final String METADATA_DIRECTORY = ".metadata";
+    private static final String CONTENT_CACHE_DIRECTORY = ".content";
+    private static final String SESSION_STATE_FILE = ".session";
+    private static final long DHT_POLL_INTERVAL = 250;
+    private static final int MAX_STREAMING_THREADS = 4;
+    private static final long IDLE_THREAD_KEEP_ALIVE = 30 * 1000;
+    private static final String MAGNET_INFO_HASH = "xt=urn:btih:";
+    private static final long RESUME_DATA_INTERVAL = 30 * 1000, RESUME_DATA_TIMEOUT = 5 * 1000;
+    private static final long MAGNET_TIMEOUT = 30 * 1000;
+    private static final int METADATA_CONNECT_TIMEOUT = 15 * 1000, METADATA_READ_TIMEOUT = 15 * 1000;
+    private static final int METADATA_MAX_SIZE = 16 * 1024 * 1024;
     private static TorrentStream sThis;
 
     private CountDownLatch initialisingLatch;
     private SessionManager torrentSession;
-    private Boolean initialising = false, initialised = false, isStreaming = false, isCanceled = false;
+    private Boolean initialising = false, initialised = false;
     private TorrentOptions torrentOptions;
-
-    private Torrent currentTorrent;
-    private String currentTorrentUrl;
-    private Integer dhtNodes = 0;
-
-    private final List<TorrentListener> listeners = new ArrayList<>();
-
-    private HandlerThread libTorrentThread, streamingThread;
-    private Handler libTorrentHandler, streamingHandler;
+    private ResumeDataStore resumeData;
+    private MetadataCache metadataCache;
+    private ContentCache contentCache;
+    private SessionStateStore sessionState;
+    private final ScheduledThreadPoolExecutor contentCacheExecutor = createContentCacheExecutor();
+    private final MetadataLoader metadataLoader = new MetadataLoader(METADATA_CONNECT_TIMEOUT, METADATA_READ_TIMEOUT, METADATA_MAX_SIZE);
+
+    private final ConcurrentMap<String, ActiveStream> streams = new ConcurrentHashMap<>();
+    private final Map<String, Torrent> torrents = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Prefetch> prefetches = new ConcurrentHashMap<>();
+    private final Map<String, TorrentHandle> pendingRemovals = new ConcurrentHashMap<>();
+    // Torrents of stopped streams that were not added to the session yet, they are removed as soon as they are added
+    private final Set<String> canceledTorrents = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile ActiveStream currentStream;
+    private volatile Integer dhtNodes = 0;
+    private final Object dhtLock = new Object();
+    private volatile boolean dhtBootstrapped;
+
+    private final TorrentEventDispatcher listeners = new TorrentEventDispatcher();
+
+    private HandlerThread libTorrentThread;
+    private Handler libTorrentHandler;
+    // Loads metadata and adds torrents for startStream and prefetch, idle threads stop after a while
+    private final ThreadPoolExecutor streamingExecutor = createStreamingExecutor();
+    private final Queue<Prefetch> pendingPrefetches = new ArrayDeque<>();
+    private boolean prefetchRunning;
 
     private final DHTStatsAlertListener dhtStatsAlertListener = new DHTStatsAlertListener() {
         @Override
         public void stats(int totalDhtNodes) {
-            dhtNodes = totalDhtNodes;
+            synchronized (dhtLock) {
+                dhtNodes = totalDhtNodes;
+                dhtLock.notifyAll();
+            }
         }
     };
 
     private final TorrentAddedAlertListener torrentAddedAlertListener = new TorrentAddedAlertListener() {
         @Override
         public void torrentAdded(AddTorrentAlert alert) {
-            InternalTorrentListener listener = new InternalTorrentListener();
+            String infoHash = alert.handle().infoHash().toHex();
+            if (canceledTorrents.remove(infoHash)) {
+                torrentSession.remove(alert.handle());
+                return;
+            }
+
+            ActiveStream stream = findStream(infoHash);
+            if (stream == null) {
+                Prefetch prefetch = findPrefetch(infoHash);
+                if (prefetch != null) {
+                    startPrefetchDownload(prefetch, torrentSession.find(alert.handle().infoHash()));
+                }
+                // Otherwise not added by one of our streams, for example the temporary torrent of fetchMagnet
+                return;
+            } else if (stream.torrent != null) {
+                return;
+            }
+
             TorrentHandle th = torrentSession.find(alert.handle().infoHash());
-            currentTorrent = new Torrent(th, listener, torrentOptions.prepareSize);
+            if (th != null && th.status().hasMetadata()) {
+                createTorrent(stream, th);
+            }
+        }
+    };
+
+    private final MetadataReceivedAlertListener metadataReceivedAlertListener = new MetadataReceivedAlertListener() {
+        @Override
+        public void metadataReceived(MetadataReceivedAlert alert) {
+            ActiveStream stream = findStream(alert.handle().infoHash().toHex());
+            if (stream == null || stream.torrent != null) {
+                return;
+            }
+
+            TorrentHandle th = torrentSession.find(alert.handle().infoHash());
+            if (th == null) {
+                return;
+            }
+
+            stream.metrics.metadataReceived();
+            TorrentInfo torrentInfo = th.torrentFile();
+            if (torrentInfo != null) {
+                metadataCache.put(stream.torrentUrl, torrentInfo);
+            }
+            // Prioritises the prepare pieces right away, on the peers that sent the metadata
+            createTorrent(stream, th);
+        }
+    };
+
+    private final ResumeDataAlertListener resumeDataAlertListener = new ResumeDataAlertListener() {
+        @Override
+        public void resumeDataSaved(SaveResumeDataAlert alert) {
+            String infoHash = alert.handle().infoHash().toHex();
+            if (torrentOptions.saveResumeData && !torrentOptions.removeFiles) {
+                try {
+                    resumeData.save(infoHash, AddTorrentParams.writeResumeDataBuf(alert.params()));
+                } catch (IOException e) {
+                    // Without resume data the files are checked when the torrent is added again
+                }
+            }
+            removePending(infoHash);
+        }
+
+        @Override
+        public void resumeDataFailed(SaveResumeDataFailedAlert alert) {
+            removePending(alert.handle().infoHash().toHex());
+        }
+    };
+
+    private final Runnable pauseSessionRunnable = new Runnable() {
+        @Override
+        public void run() {
+            saveSessionState();
+            torrentSession.pause();
+        }
+    };
+
+    private final Runnable saveResumeDataRunnable = new Runnable() {
+        @Override
+        public void run() {
+            for (Torrent torrent : torrents.values()) {
+                TorrentHandle handle = torrent.getTorrentHandle();
+                if (handle.isValid() && handle.needSaveResumeData()) {
+                    handle.saveResumeData();
+                }
+            }
 
-            torrentSession.addListener(currentTorrent);
+            if (isStreaming()) {
+                libTorrentHandler.postDelayed(this, RESUME_DATA_INTERVAL);
+            }
         }
     };
 
@@ -138,6 +273,9 @@ public final class TorrentStream {
                     setOptions(torrentOptions);
 
                     torrentSession.addListener(dhtStatsAlertListener);
+                    torrentSession.addListener(torrentAddedAlertListener);
+                    torrentSession.addListener(metadataReceivedAlertListener);
+                    torrentSession.addListener(resumeDataAlertListener);
                     torrentSession.startDht();
 
                     initialising = false;
@@ -153,7 +291,8 @@ public final class TorrentStream {
      */
     public void resumeSession() {
         if (libTorrentThread != null && torrentSession != null) {
-            libTorrentHandler.removeCallbacksAndMessages(null);
+            // A pause that did not run yet is not needed anymore
+            libTorrentHandler.removeCallbacks(pauseSessionRunnable);
 
             //resume torrent session if needed
             if (torrentSession.isPaused()) {
@@ -173,6 +312,90 @@ public final class TorrentStream {
                     }
                 });
             }
+
+            if (isStreaming()) {
+                scheduleResumeData();
+            }
+        }
+    }
+
+    /**
+     * Save the session state, so the next session starts with the DHT routing table of this one
+     */
+    private void saveSessionState() {
+        byte[] state = torrentSession.saveState();
+        if (state != null) {
+            try {
+                sessionState.save(state);
+            } catch (IOException e) {
+                // The next session bootstraps the DHT from scratch
+            }
+        }
+    }
+
+    /**
+     * Wait until the DHT knows the minimum amount of nodes of the {@link TorrentOptions} or the timeout passed. Only the
+     * first magnet waits, later lookups use whatever the routing table contains.
+     */
+    private void awaitDhtBootstrap() {
+        if (dhtBootstrapped || torrentOptions.dhtBootstrapNodes <= 0) {
+            return;
+        }
+
+        long deadline = System.currentTimeMillis() + torrentOptions.dhtBootstrapTimeout;
+        synchronized (dhtLock) {
+            try {
+                // The stats alerts are not frequent, so the node count of the session is polled as well
+                while (Math.max(dhtNodes, torrentSession.dhtNodes()) < torrentOptions.dhtBootstrapNodes) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    dhtLock.wait(Math.min(remaining, DHT_POLL_INTERVAL));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        dhtBootstrapped = true;
+    }
+
+    /**
+     * Save the resume data of the active torrents periodically, so a process that dies doesn't lose all progress
+     */
+    private void scheduleResumeData() {
+        if (torrentOptions.saveResumeData && !torrentOptions.removeFiles) {
+            libTorrentHandler.removeCallbacks(saveResumeDataRunnable);
+            libTorrentHandler.postDelayed(saveResumeDataRunnable, RESUME_DATA_INTERVAL);
+        }
+    }
+
+    /**
+     * Remove a torrent from the session, after saving its resume data when enabled
+     *
+     * @param infoHash Hex encoded info-hash
+     * @param handle   {@link TorrentHandle} of the torrent
+     */
+    private void removeTorrent(final String infoHash, TorrentHandle handle) {
+        if (torrentOptions.saveResumeData && !torrentOptions.removeFiles) {
+            // The torrent is removed once its resume data is saved, or after a timeout when libtorrent doesn't respond
+            pendingRemovals.put(infoHash, handle);
+            handle.saveResumeData();
+            libTorrentHandler.postDelayed(() -> removePending(infoHash), RESUME_DATA_TIMEOUT);
+        } else {
+            torrentSession.remove(handle);
+        }
+    }
+
+    /**
+     * Remove a torrent of a stopped stream that was waiting for its resume data to be saved
+     *
+     * @param infoHash Hex encoded info-hash
+     */
+    private void removePending(String infoHash) {
+        TorrentHandle handle = pendingRemovals.remove(infoHash);
+        if (handle != null) {
+            torrentSession.remove(handle);
         }
     }
 
@@ -180,12 +403,56 @@ public final class TorrentStream {
      * Pause TorrentSession
      */
     public void pauseSession() {
-        if (!isStreaming)
-            libTorrentHandler.post(() -> torrentSession.pause());
+        if (!isStreaming())
+            libTorrentHandler.post(pauseSessionRunnable);
+    }
+
+    /**
+     * Get torrent metadata from the metadata cache, a magnet is also found when the torrent was cached under another url
+     *
+     * @param torrentUrl {@link String} URL to .torrent or magnet link
+     * @return {@link TorrentInfo}, {@code null} if not cached
+     */
+    private TorrentInfo getCachedTorrentInfo(String torrentUrl) {
+        TorrentInfo torrentInfo = metadataCache.get(torrentUrl);
+        if (torrentInfo == null && torrentUrl.startsWith("magnet")) {
+            String infoHash = getMagnetInfoHash(torrentUrl);
+            if (infoHash != null) {
+                torrentInfo = metadataCache.getByInfoHash(infoHash);
+            }
+        }
+        return torrentInfo;
     }
 
     /**
-     * Get torrent metadata, either by downloading the .torrent or fetching the magnet
+     * @param magnet {@link String} magnet link
+     * @return Hex encoded info-hash of the magnet, {@code null} if it has no hex encoded v1 info-hash
+     */
+    private static String getMagnetInfoHash(String magnet) {
+        String lowerCaseMagnet = magnet.toLowerCase(Locale.US);
+        int start = lowerCaseMagnet.indexOf(MAGNET_INFO_HASH);
+        if (start < 0) {
+            return null;
+        }
+
+        start += MAGNET_INFO_HASH.length();
+        int end = start + 40;
+        if (end > lowerCaseMagnet.length()) {
+            return null;
+        }
+        for (int i = start; i < end; i++) {
+            if (Character.digit(lowerCaseMagnet.charAt(i), 16) < 0) {
+                return null;
+            }
+        }
+        if (end < lowerCaseMagnet.length() && lowerCaseMagnet.charAt(end) != '&') {
+            return null;
+        }
+        return lowerCaseMagnet.substring(start, end);
+    }
+
+    /**
+     * Get torrent metadata, either by downloading the .torrent or fetching the magnet, and add it to the metadata cache
      *
      * @param torrentUrl {@link String} URL to .torrent or magnet link
      * @return {@link TorrentInfo}
@@ -194,42 +461,27 @@ public final class TorrentStream {
         if (torrentUrl.startsWith("magnet")) {
             File saveDirectory = new File(torrentOptions.saveLocation);
             if (!saveDirectory.isDirectory() && !saveDirectory.mkdirs()) {
-                for (final TorrentListener listener : listeners) {
-                    ThreadUtils.runOnUiThread(() -> listener.onStreamError(null, new DirectoryModifyException()));
-                }
-                return null;
+                throw new TorrentInfoException(new DirectoryModifyException());
             }
 
+            awaitDhtBootstrap();
             byte[] data = torrentSession.fetchMagnet(torrentUrl, 30, saveDirectory);
             if (data != null)
                 try {
-                    return TorrentInfo.bdecode(data);
+                    TorrentInfo torrentInfo = TorrentInfo.bdecode(data);
+                    metadataCache.put(torrentUrl, torrentInfo);
+                    return torrentInfo;
                 } catch (IllegalArgumentException e) {
                     throw new TorrentInfoException(e);
                 }
 
         } else if (torrentUrl.startsWith("http") || torrentUrl.startsWith("https")) {
             try {
-                URL url = new URL(torrentUrl);
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-
-                connection.setRequestMethod("GET");
-                connection.setInstanceFollowRedirects(true);
-                connection.connect();
-
-                InputStream inputStream = connection.getInputStream();
-
-                byte[] responseByteArray = new byte[0];
-
-                if (connection.getResponseCode() == 200) {
-                    responseByteArray = getBytesFromInputStream(inputStream);
-                }
-
-                inputStream.close();
-                connection.disconnect();
-
-                if (responseByteArray.length > 0) {
-                    return TorrentInfo.bdecode(responseByteArray);
+                MetadataLoader.Response response = metadataLoader.download(torrentUrl, null);
+                if (response.data.length > 0) {
+                    TorrentInfo torrentInfo = TorrentInfo.bdecode(response.data);
+                    metadataCache.put(torrentUrl, torrentInfo, response.validators);
+                    return torrentInfo;
                 }
             } catch (IOException | IllegalArgumentException e) {
                 throw new TorrentInfoException(e);
@@ -239,12 +491,11 @@ public final class TorrentStream {
             File file = new File(path.getPath());
 
             try {
-                FileInputStream fileInputStream = new FileInputStream(file);
-                byte[] responseByteArray = getBytesFromInputStream(fileInputStream);
-                fileInputStream.close();
-
-                if (responseByteArray.length > 0) {
-                    return TorrentInfo.bdecode(responseByteArray);
+                byte[] data = metadataLoader.read(file);
+                if (data.length > 0) {
+                    TorrentInfo torrentInfo = TorrentInfo.bdecode(data);
+                    metadataCache.put(torrentUrl, torrentInfo);
+                    return torrentInfo;
                 }
             } catch (IOException | IllegalArgumentException e) {
                 throw new TorrentInfoException(e);
@@ -254,18 +505,26 @@ public final class TorrentStream {
         return null;
     }
 
-    private byte[] getBytesFromInputStream(InputStream inputStream) throws IOException {
-        ByteArrayOutputStream byteBuffer = new ByteArrayOutputStream();
-
-        int bufferSize = 1024;
-        byte[] buffer = new byte[bufferSize];
-
-        int len;
-        while ((len = inputStream.read(buffer)) != -1) {
-            byteBuffer.write(buffer, 0, len);
+    /**
+     * Check if the .torrent behind a cached url changed with a conditional request, a changed .torrent replaces the
+     * cached one and is used by the next stream of the url
+     *
+     * @param torrentUrl {@link String} http(s) url of the .torrent
+     */
+    private void revalidateTorrentInfo(String torrentUrl) {
+        MetadataLoader.Validators validators = metadataCache.getValidators(torrentUrl);
+        if (validators == null) {
+            return;
         }
 
-        return byteBuffer.toByteArray();
+        try {
+            MetadataLoader.Response response = metadataLoader.download(torrentUrl, validators);
+            if (response.data != null && response.data.length > 0) {
+                metadataCache.put(torrentUrl, TorrentInfo.bdecode(response.data), response.validators);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // The cached torrent is used until the url is checked again
+        }
     }
 
     /**
@@ -274,119 +533,437 @@ public final class TorrentStream {
      * @param torrentUrl {@link String} .torrent or magnet link
      */
     public void startStream(final String torrentUrl) {
+        startStream(torrentUrl, null);
+    }
+
+    /**
+     * Start stream download for specified torrent. Multiple streams can be active at the same time,
+     * they share the bandwidth of the session.
+     *
+     * @param torrentUrl {@link String} .torrent or magnet link
+     * @param listener   {@link TorrentListener} that only receives the events of this stream, may be {@code null}
+     */
+    public void startStream(final String torrentUrl, final TorrentListener listener) {
         if (!initialising && !initialised)
             initialise();
 
-        if (libTorrentHandler == null || isStreaming) return;
-
-        isCanceled = false;
+        if (libTorrentHandler == null) return;
 
-        streamingThread = new HandlerThread(STREAMING_THREAD_NAME);
-        streamingThread.start();
-        streamingHandler = new Handler(streamingThread.getLooper());
+        StreamMetrics.Recorder metrics = new StreamMetrics.Recorder();
+        final ActiveStream stream = new ActiveStream(torrentUrl, metrics, new InternalTorrentListener(listener, metrics));
+        if (streams.putIfAbsent(torrentUrl, stream) != null) return;
+        currentStream = stream;
+        scheduleResumeData();
 
-        streamingHandler.post(() -> {
-            isStreaming = true;
-
-            if (initialisingLatch != null) {
+        final Future<?> task = streamingExecutor.submit(() -> {
+            CountDownLatch latch = initialisingLatch;
+            if (latch != null) {
                 try {
-                    initialisingLatch.await();
-                    initialisingLatch = null;
+                    latch.await();
                 } catch (InterruptedException e) {
-                    isStreaming = false;
+                    streams.remove(torrentUrl, stream);
                     return;
                 }
             }
 
-            currentTorrentUrl = torrentUrl;
-
             File saveDirectory = new File(torrentOptions.saveLocation);
             if (!saveDirectory.isDirectory() && !saveDirectory.mkdirs()) {
-                for (final TorrentListener listener : listeners) {
-                    ThreadUtils.runOnUiThread(() -> listener.onStreamError(null, new DirectoryModifyException()));
-                }
-                isStreaming = false;
+                stream.listener.onStreamError(null, new DirectoryModifyException());
+                streams.remove(torrentUrl, stream);
                 return;
             }
 
-            torrentSession.removeListener(torrentAddedAlertListener);
-            TorrentInfo torrentInfo = null;
-            try {
-                torrentInfo = getTorrentInfo(torrentUrl);
-            } catch (final TorrentInfoException e) {
-                for (final TorrentListener listener : listeners) {
-                    ThreadUtils.runOnUiThread(() -> listener.onStreamError(null, e));
+            TorrentInfo torrentInfo = getCachedTorrentInfo(torrentUrl);
+            final boolean cached = torrentInfo != null;
+            if (torrentInfo == null && torrentUrl.startsWith("magnet")) {
+                String infoHash = getMagnetInfoHash(torrentUrl);
+                if (infoHash != null) {
+                    downloadMagnet(stream, infoHash, saveDirectory);
+                    return;
                 }
             }
-            torrentSession.addListener(torrentAddedAlertListener);
 
             if (torrentInfo == null) {
-                for (final TorrentListener listener : listeners) {
-                    ThreadUtils.runOnUiThread(() -> listener.onStreamError(null, new TorrentInfoException(null)));
+                try {
+                    torrentInfo = getTorrentInfo(torrentUrl);
+                } catch (final TorrentInfoException e) {
+                    stream.listener.onStreamError(null, e);
                 }
-                isStreaming = false;
+            }
+
+            if (torrentInfo == null) {
+                stream.listener.onStreamError(null, new TorrentInfoException(null));
+                streams.remove(torrentUrl, stream);
+                return;
+            }
+
+            if (stream.token.isCanceled()) {
+                return;
+            }
+
+            stream.metrics.metadataReceived();
+            String infoHash = torrentInfo.infoHash().toHex();
+            if (!claimTorrent(stream, infoHash) || takeOverPrefetch(stream)) {
                 return;
             }
 
+            File resumeFile = torrentOptions.saveResumeData && !torrentOptions.removeFiles ? resumeData.get(infoHash) : null;
+
             Priority[] priorities = new Priority[torrentInfo.numFiles()];
             Arrays.fill(priorities, Priority.IGNORE);
 
-            if (!currentTorrentUrl.equals(torrentUrl) || isCanceled) {
+            torrentSession.download(torrentInfo, saveDirectory, resumeFile, priorities, null, torrent_flags_t.from_int(0));
+
+            if (cached && torrentUrl.startsWith("http")) {
+                revalidateTorrentInfo(torrentUrl);
+            }
+        });
+        // Interrupts the task while it waits for the session or the metadata
+        stream.token.onCancel(() -> task.cancel(true));
+    }
+
+    /**
+     * Add a magnet to the session without waiting for its metadata, so the peers that send the metadata are also used
+     * to download the torrent. The {@link Torrent} is created when the metadata is received.
+     *
+     * @param stream        {@link ActiveStream} of the magnet
+     * @param infoHash      Hex encoded info-hash of the magnet
+     * @param saveDirectory Directory to download the torrent to
+     */
+    private void downloadMagnet(final ActiveStream stream, String infoHash, File saveDirectory) {
+        if (stream.token.isCanceled() || !claimTorrent(stream, infoHash)) {
+            return;
+        } else if (takeOverPrefetch(stream)) {
+            stream.metrics.metadataReceived();
+            return;
+        }
+
+        awaitDhtBootstrap();
+        torrentSession.download(stream.torrentUrl, saveDirectory, torrent_flags_t.from_int(0));
+
+        libTorrentHandler.postDelayed(() -> {
+            if (streams.get(stream.torrentUrl) == stream && stream.torrent == null) {
+                stream.listener.onStreamError(null, new TorrentInfoException(null));
+                stopStream(stream.torrentUrl);
+            }
+        }, MAGNET_TIMEOUT);
+    }
+
+    /**
+     * Assign a torrent to a stream
+     *
+     * @param stream   {@link ActiveStream}
+     * @param infoHash Hex encoded info-hash of the torrent
+     * @return {@code false} if the torrent is already streaming under another url, the stream is removed with an error
+     */
+    private boolean claimTorrent(ActiveStream stream, String infoHash) {
+        if (findStream(infoHash) != null) {
+            if (streams.remove(stream.torrentUrl, stream)) {
+                stream.listener.onStreamError(null, new AlreadyStreamingException());
+            }
+            return false;
+        }
+        stream.infoHash = infoHash;
+        canceledTorrents.remove(infoHash);
+
+        // A stopped stream of the same torrent may still be waiting for its resume data
+        removePending(infoHash);
+        return true;
+    }
+
+    private void createTorrent(ActiveStream stream, TorrentHandle th) {
+        synchronized (stream) {
+            // A prefetched torrent can be taken over while it is being added
+            if (stream.torrent != null) {
                 return;
             }
 
-            torrentSession.download(torrentInfo, saveDirectory, null, priorities, null, torrent_flags_t.from_int(0));
-        });
+            Torrent torrent = new Torrent(new LibTorrentBackend(th), stream.listener, torrentOptions, stream.metrics);
+            stream.torrent = torrent;
+            torrents.put(stream.infoHash, torrent);
+
+            torrentSession.addListener(torrent);
+            // A prefetched torrent keeps downloading while it is taken over, the alerts of pieces that finished
+            // before the listener was added went to no one
+            torrent.restoreFinishedPieces();
+        }
+    }
+
+    /**
+     * Let a stream take over the prefetched torrent with the same info-hash, the pieces that were prefetched prepare
+     * the stream right away
+     *
+     * @param stream {@link ActiveStream} that claimed the torrent
+     * @return {@code true} if the torrent was prefetched, it is not added again
+     */
+    private boolean takeOverPrefetch(ActiveStream stream) {
+        Prefetch prefetch = findPrefetch(stream.infoHash);
+        if (prefetch == null) {
+            return false;
+        }
+
+        synchronized (prefetch) {
+            prefetches.remove(prefetch.torrentUrl, prefetch);
+            TorrentHandle th = torrentSession.find(new Sha1Hash(stream.infoHash));
+            if (th != null && th.isValid()) {
+                th.setDownloadLimit(0);
+                createTorrent(stream, th);
+            }
+            // Otherwise the torrent is still being added, it is created for the stream when it is
+        }
+        return true;
+    }
+
+    /**
+     * Prefetch the upcoming torrents of a playlist in the background. Their metadata is loaded, they join their swarms
+     * and download the pieces a stream prepares at low priority, limited to the prefetch download speed of the
+     * {@link TorrentOptions}. A stream of a prefetched torrent takes over its torrent and is ready almost immediately.
+     * Torrents of a previous call that are not in the list anymore are removed.
+     *
+     * @param torrentUrls {@link List} of .torrent or magnet links, in the order they are played
+     */
+    public void prefetch(List<String> torrentUrls) {
+        if (!initialising && !initialised)
+            initialise();
+
+        if (libTorrentHandler == null) return;
+
+        List<String> urls = new ArrayList<>(torrentUrls);
+        for (Prefetch prefetch : prefetches.values()) {
+            if (!urls.contains(prefetch.torrentUrl)) {
+                removePrefetch(prefetch);
+            }
+        }
+
+        for (String torrentUrl : urls) {
+            if (streams.containsKey(torrentUrl) || prefetches.containsKey(torrentUrl)) continue;
+
+            Prefetch prefetch = new Prefetch(torrentUrl);
+            prefetches.put(torrentUrl, prefetch);
+            synchronized (pendingPrefetches) {
+                pendingPrefetches.add(prefetch);
+                if (!prefetchRunning) {
+                    prefetchRunning = true;
+                    streamingExecutor.execute(this::addPendingPrefetches);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all prefetched torrents that are not streaming
+     */
+    public void cancelPrefetch() {
+        prefetch(Collections.<String>emptyList());
+    }
+
+    /**
+     * Add the pending prefetches one after the other, so prefetching never takes more than one thread of the streaming
+     * executor from the streams
+     */
+    private void addPendingPrefetches() {
+        while (true) {
+            Prefetch prefetch;
+            synchronized (pendingPrefetches) {
+                prefetch = pendingPrefetches.poll();
+                if (prefetch == null) {
+                    prefetchRunning = false;
+                    return;
+                }
+            }
+
+            if (!prefetch.token.isCanceled()) {
+                try {
+                    addPrefetch(prefetch);
+                } catch (RuntimeException e) {
+                    // Keep adding the other prefetches, a stream of this one reports the error
+                    prefetches.remove(prefetch.torrentUrl, prefetch);
+                }
+            }
+        }
+    }
+
+    /**
+     * Load the metadata of a prefetch and add its torrent, runs on the streaming executor
+     *
+     * @param prefetch {@link Prefetch}
+     */
+    private void addPrefetch(Prefetch prefetch) {
+        CountDownLatch latch = initialisingLatch;
+        if (latch != null) {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                prefetches.remove(prefetch.torrentUrl, prefetch);
+                return;
+            }
+        }
+
+        File saveDirectory = new File(torrentOptions.saveLocation);
+        TorrentInfo torrentInfo = null;
+        if (saveDirectory.isDirectory() || saveDirectory.mkdirs()) {
+            torrentInfo = getCachedTorrentInfo(prefetch.torrentUrl);
+            if (torrentInfo == null && !prefetch.token.isCanceled()) {
+                try {
+                    torrentInfo = getTorrentInfo(prefetch.torrentUrl);
+                } catch (TorrentInfoException e) {
+                    // The error is reported when the torrent is streamed
+                }
+            }
+        }
+
+        synchronized (prefetch) {
+            String infoHash = torrentInfo != null ? torrentInfo.infoHash().toHex() : null;
+            if (prefetch.token.isCanceled() || infoHash == null || findStream(infoHash) != null || findPrefetch(infoHash) != null) {
+                prefetches.remove(prefetch.torrentUrl, prefetch);
+                return;
+            }
+            prefetch.infoHash = infoHash;
+            canceledTorrents.remove(infoHash);
+            removePending(infoHash);
+
+            File resumeFile = torrentOptions.saveResumeData && !torrentOptions.removeFiles ? resumeData.get(infoHash) : null;
+            Priority[] priorities = new Priority[torrentInfo.numFiles()];
+            Arrays.fill(priorities, Priority.IGNORE);
+
+            torrentSession.download(torrentInfo, saveDirectory, resumeFile, priorities, null, torrent_flags_t.from_int(0));
+        }
     }
 
     /**
-     * Stop current torrent stream
+     * Start downloading the prepare pieces of a prefetched torrent once it is added
+     *
+     * @param prefetch {@link Prefetch}
+     * @param th       {@link TorrentHandle} of the added torrent
+     */
+    private void startPrefetchDownload(Prefetch prefetch, TorrentHandle th) {
+        synchronized (prefetch) {
+            // Don't touch a torrent that was taken over by a stream in the meantime
+            if (th == null || !th.isValid() || prefetches.get(prefetch.torrentUrl) != prefetch) {
+                return;
+            }
+
+            Torrent.prefetch(new LibTorrentBackend(th), torrentOptions.prepareSize);
+            th.setDownloadLimit(torrentOptions.prefetchDownloadSpeed);
+        }
+    }
+
+    private void removePrefetch(Prefetch prefetch) {
+        String infoHash;
+        synchronized (prefetch) {
+            prefetch.token.cancel();
+            if (!prefetches.remove(prefetch.torrentUrl, prefetch) || prefetch.infoHash == null) {
+                return;
+            }
+            infoHash = prefetch.infoHash;
+        }
+
+        TorrentHandle handle = torrentSession.find(new Sha1Hash(infoHash));
+        if (handle == null || !handle.isValid()) {
+            canceledTorrents.add(infoHash);
+            return;
+        }
+
+        String name = handle.getName();
+        long downloaded = handle.status().totalDone();
+        removeTorrent(infoHash, handle);
+
+        if (torrentOptions.removeFiles) {
+            contentCache.delete(infoHash, new File(torrentOptions.saveLocation, name), null);
+        } else {
+            contentCache.access(infoHash, name, downloaded, getTorrentsInUse());
+        }
+    }
+
+    /**
+     * @return Info-hashes of the torrents that are streaming, prefetched or waiting to be removed
+     */
+    private Set<String> getTorrentsInUse() {
+        Set<String> infoHashes = new HashSet<>(pendingRemovals.keySet());
+        for (ActiveStream stream : streams.values()) {
+            if (stream.infoHash != null) {
+                infoHashes.add(stream.infoHash);
+            }
+        }
+        for (Prefetch prefetch : prefetches.values()) {
+            if (prefetch.infoHash != null) {
+                infoHashes.add(prefetch.infoHash);
+            }
+        }
+        return infoHashes;
+    }
+
+    private Prefetch findPrefetch(String infoHash) {
+        for (Prefetch prefetch : prefetches.values()) {
+            if (infoHash.equals(prefetch.infoHash)) {
+                return prefetch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stop all torrent streams
      */
     public void stopStream() {
-        //remove all callbacks from handler
+        // Pending torrent removals and magnet timeouts still have to run
         if (libTorrentHandler != null)
-            libTorrentHandler.removeCallbacksAndMessages(null);
-        if (streamingHandler != null)
-            streamingHandler.removeCallbacksAndMessages(null);
+            libTorrentHandler.removeCallbacks(saveResumeDataRunnable);
 
-        isCanceled = true;
-        isStreaming = false;
-        if (currentTorrent != null) {
-            final File saveLocation = currentTorrent.getSaveLocation();
+        for (String torrentUrl : streams.keySet()) {
+            stopStream(torrentUrl);
+        }
 
-            currentTorrent.pause();
-            torrentSession.removeListener(currentTorrent);
-            torrentSession.remove(currentTorrent.getTorrentHandle());
-            currentTorrent = null;
+        if (libTorrentHandler != null)
+            libTorrentHandler.post(this::saveSessionState);
+    }
 
-            if (torrentOptions.removeFiles) {
-                new Thread(() -> {
-                    int tries = 0;
-                    while (!FileUtils.recursiveDelete(saveLocation) && tries < 5) {
-                        tries++;
-                        try {
-                            Thread.sleep(1000); // If deleted failed then something is still using the file, wait and then retry
-                        } catch (InterruptedException e) {
-                            for (final TorrentListener listener : listeners) {
-                                ThreadUtils.runOnUiThread(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        listener.onStreamError(currentTorrent, new DirectoryModifyException());
-                                    }
-                                });
-                            }
-                        }
-                    }
-                }).start();
-            }
+    /**
+     * Stop the torrent stream of the specified torrent, other streams keep running
+     *
+     * @param torrentUrl {@link String} .torrent or magnet link that was used to start the stream
+     */
+    public void stopStream(String torrentUrl) {
+        final ActiveStream stream = streams.remove(torrentUrl);
+        if (stream == null) return;
+
+        stream.token.cancel();
+        if (currentStream == stream) {
+            currentStream = null;
         }
 
-        if (streamingThread != null)
-            streamingThread.interrupt();
+        final Torrent torrent = stream.torrent;
+        if (torrent != null) {
+            torrents.remove(stream.infoHash);
+            final File saveLocation = torrent.getSaveLocation();
+
+            torrent.pause();
+            torrent.close();
+            torrentSession.removeListener(torrent);
+            stream.torrent = null;
+
+            TorrentHandle handle = torrent.getTorrentHandle();
+            long downloaded = handle.status().totalDone();
+            removeTorrent(stream.infoHash, handle);
 
-        for (final TorrentListener listener : listeners) {
-            ThreadUtils.runOnUiThread(listener::onStreamStopped);
+            if (torrentOptions.removeFiles) {
+                resumeData.delete(stream.infoHash);
+                contentCache.delete(stream.infoHash, saveLocation,
+                        () -> stream.listener.onStreamError(torrent, new DirectoryModifyException()));
+            } else {
+                contentCache.access(stream.infoHash, saveLocation.getName(), downloaded, getTorrentsInUse());
+            }
+        } else if (stream.infoHash != null) {
+            // The torrent is still being added or waiting for its metadata
+            TorrentHandle handle = torrentSession.find(new Sha1Hash(stream.infoHash));
+            if (handle != null && handle.isValid()) {
+                torrentSession.remove(handle);
+            } else {
+                canceledTorrents.add(stream.infoHash);
+            }
         }
+
+        stream.listener.onStreamStopped();
     }
 
     public TorrentOptions getOptions() {
@@ -395,6 +972,11 @@ public final class TorrentStream {
 
     public void setOptions(TorrentOptions options) {
         torrentOptions = options;
+        resumeData = new ResumeDataStore(new File(torrentOptions.saveLocation, RESUME_DATA_DIRECTORY));
+        metadataCache = new MetadataCache(new File(torrentOptions.saveLocation, METADATA_DIRECTORY), torrentOptions.metadataCacheSize);
+        sessionState = new SessionStateStore(new File(torrentOptions.saveLocation, SESSION_STATE_FILE));
+        contentCache = new ContentCache(new File(torrentOptions.saveLocation), new File(torrentOptions.saveLocation, CONTENT_CACHE_DIRECTORY),
+                torrentOptions.contentCacheSize, resumeData, contentCacheExecutor);
 
         SettingsPack settingsPack = new SettingsPack()
                 .anonymousMode(torrentOptions.anonymousMode)
@@ -403,6 +985,11 @@ public final class TorrentStream {
                 .uploadRateLimit(torrentOptions.maxUploadSpeed)
                 .activeDhtLimit(torrentOptions.maxDht);
 
+        if (torrentOptions.performanceProfile != null) {
+            PerformanceSettings.apply(settingsPack, torrentOptions.performanceProfile,
+                    Runtime.getRuntime().availableProcessors(), PerformanceSettings.getMemoryClass());
+        }
+
         if (torrentOptions.listeningPort != -1) {
             String ifStr = String.format(Locale.ENGLISH, "%s:%d", "0.0.0.0", torrentOptions.listeningPort);
             settingsPack.setString(settings_pack.string_types.listen_interfaces.swigValue(), ifStr);
@@ -423,79 +1010,239 @@ public final class TorrentStream {
         }
 
         if (!torrentSession.isRunning()) {
-            SessionParams sessionParams = new SessionParams(settingsPack);
-            torrentSession.start(sessionParams);
+            torrentSession.start(getSessionParams(settingsPack));
         } else {
             torrentSession.applySettings(settingsPack);
         }
     }
 
+    /**
+     * Create the parameters of a new session, with the state of the previous session when it was saved
+     *
+     * @param settingsPack {@link SettingsPack} of the options, replaces the saved settings
+     * @return {@link SessionParams}
+     */
+    private SessionParams getSessionParams(SettingsPack settingsPack) {
+        byte[] state = sessionState.load();
+        if (state != null) {
+            try {
+                SessionParams sessionParams = new SessionParams(state);
+                sessionParams.setSettings(settingsPack);
+                return sessionParams;
+            } catch (IllegalArgumentException e) {
+                sessionState.delete();
+            }
+        }
+        return new SessionParams(settingsPack);
+    }
+
+    /**
+     * Check if there is at least one active stream
+     *
+     * @return {@code true} if streaming
+     */
     public boolean isStreaming() {
-        return isStreaming;
+        return !streams.isEmpty();
     }
 
+    /**
+     * Check if the specified torrent is streaming
+     *
+     * @param torrentUrl {@link String} .torrent or magnet link
+     * @return {@code true} if streaming
+     */
+    public boolean isStreaming(String torrentUrl) {
+        return streams.containsKey(torrentUrl);
+    }
+
+    /**
+     * Get the url of the stream that was started last
+     *
+     * @return {@link String} .torrent or magnet link
+     */
     public String getCurrentTorrentUrl() {
-        return currentTorrentUrl;
+        ActiveStream stream = currentStream;
+        return stream != null ? stream.torrentUrl : null;
     }
 
     public Integer getTotalDhtNodes() {
         return dhtNodes;
     }
 
+    /**
+     * Get the torrent of the stream that was started last
+     *
+     * @return {@link Torrent}
+     */
     public Torrent getCurrentTorrent() {
-        return currentTorrent;
+        ActiveStream stream = currentStream;
+        return stream != null ? stream.torrent : null;
+    }
+
+    /**
+     * Get the torrent of the stream that was started with the specified url
+     *
+     * @param torrentUrl {@link String} .torrent or magnet link
+     * @return {@link Torrent} or {@code null} if not streaming or the metadata is not retrieved yet
+     */
+    public Torrent getTorrent(String torrentUrl) {
+        ActiveStream stream = streams.get(torrentUrl);
+        return stream != null ? stream.torrent : null;
+    }
+
+    /**
+     * Get all active torrents, keyed by info-hash
+     *
+     * @return Unmodifiable {@link Map} of info-hash to {@link Torrent}
+     */
+    public Map<String, Torrent> getTorrents() {
+        return Collections.unmodifiableMap(torrents);
+    }
+
+    /**
+     * Get the performance metrics of the stream that was started with the specified url
+     *
+     * @param torrentUrl {@link String} .torrent or magnet link
+     * @return {@link StreamMetrics} snapshot or {@code null} if not streaming
+     */
+    public StreamMetrics getMetrics(String torrentUrl) {
+        ActiveStream stream = streams.get(torrentUrl);
+        return stream != null ? stream.metrics.snapshot() : null;
+    }
+
+    private ActiveStream findStream(String infoHash) {
+        for (ActiveStream stream : streams.values()) {
+            if (infoHash.equals(stream.infoHash)) {
+                return stream;
+            }
+        }
+        return null;
     }
 
+    /**
+     * Add a listener for the events of all streams, the events are delivered on the main thread
+     *
+     * @param listener {@link TorrentListener}
+     */
     public void addListener(TorrentListener listener) {
-        if (listener != null)
-            listeners.add(listener);
+        addListener(listener, ThreadUtils.getUiThreadExecutor());
+    }
+
+    /**
+     * Add a listener for the events of all streams
+     *
+     * @param listener {@link TorrentListener}
+     * @param executor {@link Executor} the events are delivered on
+     */
+    public void addListener(TorrentListener listener, Executor executor) {
+        if (listener != null && executor != null)
+            listeners.addListener(listener, executor);
     }
 
     public void removeListener(TorrentListener listener) {
         if (listener != null)
-            listeners.remove(listener);
+            listeners.removeListener(listener);
+    }
+
+    private static ThreadPoolExecutor createStreamingExecutor() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_STREAMING_THREADS, MAX_STREAMING_THREADS,
+                IDLE_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, STREAMING_THREAD_NAME + "-" + threadCount.incrementAndGet());
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ScheduledThreadPoolExecutor createContentCacheExecutor() {
+        // A single thread that stops when there is nothing to do
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, CONTENT_CACHE_THREAD_NAME);
+            }
+        });
+        executor.setKeepAliveTime(IDLE_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static final class ActiveStream {
+        final String torrentUrl;
+        final InternalTorrentListener listener;
+        final StreamMetrics.Recorder metrics;
+        volatile String infoHash;
+        volatile Torrent torrent;
+        final CancellationToken token = new CancellationToken();
+
+        ActiveStream(String torrentUrl, StreamMetrics.Recorder metrics, InternalTorrentListener listener) {
+            this.torrentUrl = torrentUrl;
+            this.metrics = metrics;
+            this.listener = listener;
+        }
+    }
+
+    private static final class Prefetch {
+        final String torrentUrl;
+        volatile String infoHash;
+        final CancellationToken token = new CancellationToken();
+
+        Prefetch(String torrentUrl) {
+            this.torrentUrl = torrentUrl;
+        }
     }
 
     protected class InternalTorrentListener implements TorrentListener {
 
-        public void onStreamStarted(final Torrent torrent) {
-            for (final TorrentListener listener : listeners) {
-                ThreadUtils.runOnUiThread(() -> listener.onStreamStarted(torrent));
+        private final TorrentEventDispatcher streamListeners = new TorrentEventDispatcher();
+        private final StreamMetrics.Recorder metrics;
+
+        InternalTorrentListener(TorrentListener streamListener, StreamMetrics.Recorder metrics) {
+            this.metrics = metrics;
+            if (streamListener != null) {
+                streamListeners.addListener(streamListener, ThreadUtils.getUiThreadExecutor());
             }
         }
 
+        public void onStreamStarted(final Torrent torrent) {
+            listeners.onStreamStarted(torrent);
+            streamListeners.onStreamStarted(torrent);
+        }
+
         public void onStreamError(final Torrent torrent, final Exception e) {
-            for (final TorrentListener listener : listeners) {
-                ThreadUtils.runOnUiThread(() -> listener.onStreamError(torrent, e));
-            }
+            listeners.onStreamError(torrent, e);
+            streamListeners.onStreamError(torrent, e);
         }
 
         public void onStreamReady(final Torrent torrent) {
-            for (final TorrentListener listener : listeners) {
-                ThreadUtils.runOnUiThread(() -> listener.onStreamReady(torrent));
-            }
+            metrics.ready();
+            listeners.onStreamReady(torrent);
+            streamListeners.onStreamReady(torrent);
         }
 
         public void onStreamProgress(final Torrent torrent, final StreamStatus status) {
-            for (final TorrentListener listener : listeners) {
-                ThreadUtils.runOnUiThread(() -> listener.onStreamProgress(torrent, status));
-            }
+            listeners.onStreamProgress(torrent, status);
+            streamListeners.onStreamProgress(torrent, status);
         }
 
         @Override
         public void onStreamStopped() {
-            // Not used
+            listeners.onStreamStopped();
+            streamListeners.onStreamStopped();
         }
 
         @Override
         public void onStreamPrepared(final Torrent torrent) {
+            metrics.prepared();
             if (torrentOptions.autoDownload) {
                 torrent.startDownload();
             }
 
-            for (final TorrentListener listener : listeners) {
-                ThreadUtils.runOnUiThread(() -> listener.onStreamPrepared(torrent));
-            }
+            listeners.onStreamPrepared(torrent);
+            streamListeners.onStreamPrepared(torrent);
         }
     }
 
@@ -0,0 +1,452 @@
+/*
+ * Copyright (C) 2015-2022 Sébastiaan (github.com/se-bastiaan)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.se_bastiaan.torrentstream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loopback HTTP/1.1 server that serves the selected file of a {@link Torrent} with support for {@code Range} requests.
+ * <p/>
+ * Requests for bytes that are not downloaded yet are prioritised with {@link Torrent#setInterestedBytes(long)} and block
+ * until the pieces are finished or the client closes the connection. At most {@value #MAX_CONNECTIONS} connections are
+ * served at the same time, further connections are closed right away. Downloaded bytes are sent using {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * so the file contents never pass through a buffer on the Java heap.
+ */
+public final class TorrentStreamServer {
+
+    private static final String SERVER_THREAD_NAME = "TORRENTSTREAM_SERVER";
+    private static final String HOST = "127.0.0.1";
+    private static final Charset HEADER_CHARSET = Charset.forName("ISO-8859-1");
+    private static final int MAX_HEADER_SIZE = 8192;
+    private static final int MAX_CONNECTIONS = 16;
+    private static final long IDLE_THREAD_KEEP_ALIVE = 60;
+    private static final long CLIENT_CHECK_INTERVAL = 1000;
+
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    private ServerSocketChannel serverChannel;
+    private ExecutorService connectionExecutor;
+    private volatile Torrent torrent;
+
+    /**
+     * Start the server on a random free port
+     */
+    public void start() throws IOException {
+        start(0);
+    }
+
+    /**
+     * Start the server on the specified port
+     *
+     * @param port Port to listen on, {@code 0} to pick a random free port
+     */
+    public synchronized void start(int port) throws IOException {
+        if (isRunning()) return;
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByName(HOST), port));
+
+        // One thread accepts, the others serve a connection each
+        connectionExecutor = new ThreadPoolExecutor(0, MAX_CONNECTIONS + 1, IDLE_THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, SERVER_THREAD_NAME + "_" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        final ServerSocketChannel channel = serverChannel;
+        final ExecutorService executor = connectionExecutor;
+        executor.execute(() -> {
+            while (channel.isOpen()) {
+                SocketChannel socket;
+                try {
+                    socket = channel.accept();
+                } catch (IOException e) {
+                    break;
+                }
+
+                try {
+                    executor.execute(new Connection(socket));
+                } catch (RejectedExecutionException e) {
+                    closeQuietly(socket);
+                    if (executor.isShutdown()) {
+                        // Executor was shut down while accepting
+                        break;
+                    }
+                    // Too many connections, the client tries again
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop the server and close all open connections
+     */
+    public synchronized void stop() {
+        if (serverChannel != null) {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                // Ignore, we are stopping anyway
+            }
+            serverChannel = null;
+        }
+
+        if (connectionExecutor != null) {
+            connectionExecutor.shutdownNow();
+            connectionExecutor = null;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return serverChannel != null && serverChannel.isOpen();
+    }
+
+    /**
+     * Set the torrent of which the selected file is served
+     *
+     * @param torrent {@link Torrent} or {@code null} to stop serving
+     */
+    public void setTorrent(Torrent torrent) {
+        this.torrent = torrent;
+    }
+
+    public Torrent getTorrent() {
+        return torrent;
+    }
+
+    /**
+     * Get the URL a player can use to stream the selected file of the current torrent
+     *
+     * @return URL or {@code null} if the server is not running or there is no torrent
+     */
+    public synchronized String getStreamUrl() {
+        Torrent torrent = this.torrent;
+        if (!isRunning() || torrent == null) {
+            return null;
+        }
+
+        String fileName = torrent.getVideoFile().getName();
+        try {
+            fileName = URLEncoder.encode(fileName, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+        }
+
+        return "http://" + HOST + ":" + serverChannel.socket().getLocalPort() + "/" + fileName;
+    }
+
+    private static void closeQuietly(SocketChannel socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    private static String getContentType(File file) {
+        String name = file.getName().toLowerCase(Locale.ENGLISH);
+        String extension = name.substring(name.lastIndexOf('.') + 1);
+        switch (extension) {
+            case "mp4":
+            case "m4v":
+                return "video/mp4";
+            case "mkv":
+                return "video/x-matroska";
+            case "webm":
+                return "video/webm";
+            case "avi":
+                return "video/x-msvideo";
+            case "mov":
+                return "video/quicktime";
+            case "ts":
+                return "video/mp2t";
+            case "mp3":
+                return "audio/mpeg";
+            default:
+                return "application/octet-stream";
+        }
+    }
+
+    private final class Connection implements Runnable {
+
+        private final SocketChannel socket;
+        private final ByteBuffer headerBuffer = ByteBuffer.allocate(MAX_HEADER_SIZE);
+        private final PieceWaitRegistry.Waiter waiter = new PieceWaitRegistry.Waiter();
+        private final Torrent.WaitCondition clientConnected = this::isClientConnected;
+
+        Connection(SocketChannel socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            try {
+                socket.socket().setTcpNoDelay(true);
+                while (!Thread.currentThread().isInterrupted() && handleRequest()) {
+                    // Keep the connection alive for the next request
+                }
+            } catch (IOException e) {
+                // Client closed the connection or the server is stopping
+            } finally {
+                waiter.cancel();
+                closeQuietly(socket);
+            }
+        }
+
+        /**
+         * Read and answer a single request
+         *
+         * @return {@code true} if the connection can be reused for another request
+         */
+        private boolean handleRequest() throws IOException {
+            String[] lines = readHeaders();
+            if (lines == null || lines.length == 0) {
+                return false;
+            }
+
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length < 3) {
+                sendStatus(400, "Bad Request", false);
+                return false;
+            }
+
+            String method = requestLine[0];
+            boolean keepAlive = !requestLine[2].equals("HTTP/1.0");
+            String range = null;
+            for (int i = 1; i < lines.length; i++) {
+                int separator = lines[i].indexOf(':');
+                if (separator <= 0) continue;
+
+                String name = lines[i].substring(0, separator).trim();
+                String value = lines[i].substring(separator + 1).trim();
+                if (name.equalsIgnoreCase("Range")) {
+                    range = value;
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    keepAlive = !value.equalsIgnoreCase("close");
+                }
+            }
+
+            Torrent torrent = TorrentStreamServer.this.torrent;
+            if (torrent == null || torrent.getState() == Torrent.State.RETRIEVING_META) {
+                sendStatus(404, "Not Found", keepAlive);
+                return keepAlive;
+            }
+
+            boolean head = method.equals("HEAD");
+            if (!head && !method.equals("GET")) {
+                sendStatus(405, "Method Not Allowed", keepAlive);
+                return keepAlive;
+            }
+
+            long fileSize = torrent.getVideoFileSize();
+            long start = 0;
+            long end = fileSize - 1;
+            boolean partial = false;
+
+            if (range != null && range.startsWith("bytes=") && range.indexOf(',') == -1) {
+                String[] bounds = range.substring("bytes=".length()).split("-", 2);
+                if (bounds.length < 2) {
+                    // No range separator, for example "bytes=" or "bytes=100"
+                    sendResponseHeaders(416, "Range Not Satisfiable", null, 0,
+                            "Content-Range: bytes */" + fileSize + "\r\n", keepAlive);
+                    return keepAlive;
+                }
+
+                try {
+                    if (bounds[0].isEmpty()) {
+                        start = Math.max(0, fileSize - Long.parseLong(bounds[1].trim()));
+                    } else {
+                        start = Long.parseLong(bounds[0].trim());
+                        if (!bounds[1].trim().isEmpty()) {
+                            end = Math.min(end, Long.parseLong(bounds[1].trim()));
+                        }
+                    }
+                    partial = true;
+                } catch (NumberFormatException e) {
+                    start = 0;
+                    end = fileSize - 1;
+                }
+
+                if (start >= fileSize || start > end) {
+                    sendResponseHeaders(416, "Range Not Satisfiable", null, 0,
+                            "Content-Range: bytes */" + fileSize + "\r\n", keepAlive);
+                    return keepAlive;
+                }
+            }
+
+            long length = end - start + 1;
+            File file = torrent.getVideoFile();
+            if (partial) {
+                sendResponseHeaders(206, "Partial Content", getContentType(file), length,
+                        "Content-Range: bytes " + start + "-" + end + "/" + fileSize + "\r\n", keepAlive);
+            } else {
+                sendResponseHeaders(200, "OK", getContentType(file), length, null, keepAlive);
+            }
+
+            if (head || length == 0) {
+                return keepAlive;
+            }
+
+            return sendFile(torrent, file, start, end) && keepAlive;
+        }
+
+        /**
+         * Transfer the requested range of the file to the socket, waiting for pieces that are not downloaded yet
+         *
+         * @return {@code true} if the whole range was sent
+         */
+        private boolean sendFile(Torrent torrent, File file, long start, long end) throws IOException {
+            RandomAccessFile randomAccessFile = null;
+            try {
+                long position = start;
+                while (position <= end) {
+                    if (!torrent.hasBytes(position)) {
+                        torrent.setInterestedBytes(position);
+                        if (!torrent.waitForBytes(position, CLIENT_CHECK_INTERVAL, waiter, clientConnected)) {
+                            return false;
+                        }
+                    }
+
+                    if (randomAccessFile == null) {
+                        // libtorrent only creates the file once the first piece is written
+                        randomAccessFile = new RandomAccessFile(file, "r");
+                    }
+
+                    FileChannel fileChannel = randomAccessFile.getChannel();
+                    long available = torrent.getAvailableBytes(position, end - position + 1);
+                    long transferred = fileChannel.transferTo(position, available, socket);
+                    if (transferred <= 0) {
+                        return false;
+                    }
+                    torrent.bytesConsumed(position, transferred);
+                    position += transferred;
+                }
+                return true;
+            } finally {
+                if (randomAccessFile != null) {
+                    randomAccessFile.close();
+                }
+            }
+        }
+
+        /**
+         * Read the request headers from the socket
+         *
+         * @return Header lines of the request, starting with the request line, or {@code null} if the connection was closed
+         */
+        private String[] readHeaders() throws IOException {
+            while (true) {
+                int headerEnd = findHeaderEnd();
+                if (headerEnd != -1) {
+                    String headers = new String(headerBuffer.array(), 0, headerEnd, HEADER_CHARSET);
+
+                    // Keep pipelined bytes of the next request
+                    int remaining = headerBuffer.position() - headerEnd - 4;
+                    System.arraycopy(headerBuffer.array(), headerEnd + 4, headerBuffer.array(), 0, remaining);
+                    headerBuffer.position(remaining);
+
+                    return headers.split("\r\n");
+                }
+
+                if (!headerBuffer.hasRemaining() || socket.read(headerBuffer) == -1) {
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * Check if the client still has the connection open while a response waits for a piece. Bytes that the client
+         * sent for its next request in the meantime are kept in the header buffer.
+         *
+         * @return {@code false} if the client closed the connection
+         */
+        private boolean isClientConnected() throws IOException {
+            if (!socket.isOpen()) {
+                return false;
+            } else if (!headerBuffer.hasRemaining()) {
+                return true;
+            }
+
+            socket.configureBlocking(false);
+            try {
+                return socket.read(headerBuffer) != -1;
+            } finally {
+                socket.configureBlocking(true);
+            }
+        }
+
+        private int findHeaderEnd() {
+            byte[] buffer = headerBuffer.array();
+            for (int i = 0; i + 3 < headerBuffer.position(); i++) {
+                if (buffer[i] == '\r' && buffer[i + 1] == '\n' && buffer[i + 2] == '\r' && buffer[i + 3] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void sendStatus(int code, String reason, boolean keepAlive) throws IOException {
+            sendResponseHeaders(code, reason, null, 0, null, keepAlive);
+        }
+
+        private void sendResponseHeaders(int code, String reason, String contentType, long contentLength,
+                                         String extraHeaders, boolean keepAlive) throws IOException {
+            StringBuilder builder = new StringBuilder()
+                    .append("HTTP/1.1 ").append(code).append(' ').append(reason).append("\r\n")
+                    .append("Accept-Ranges: bytes\r\n")
+                    .append("Content-Length: ").append(contentLength).append("\r\n")
+                    .append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+            if (contentType != null) {
+                builder.append("Content-Type: ").append(contentType).append("\r\n");
+            }
+            if (extraHeaders != null) {
+                builder.append(extraHeaders);
+            }
+            builder.append("\r\n");
+
+            ByteBuffer buffer = ByteBuffer.wrap(builder.toString().getBytes(HEADER_CHARSET));
+            while (buffer.hasRemaining()) {
+                socket.write(buffer);
+            }
+        }
+    }
+
+}
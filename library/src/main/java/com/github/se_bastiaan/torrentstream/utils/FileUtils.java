@@ -20,6 +20,8 @@
 package com.github.se_bastiaan.torrentstream.utils;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 
 public final class FileUtils {
 
@@ -45,4 +47,33 @@ public final class FileUtils {
         return file.delete();
     }
 
+    /**
+     * Replace the contents of a file. The data is written and synced to a temporary file next to it first, which is then
+     * renamed, so a process that dies while writing never leaves a partial file behind.
+     *
+     * @param file Location, its directory is created when needed
+     * @param data Contents
+     * @throws IOException when the file could not be written or replaced
+     */
+    public static void writeAtomically(File file, byte[] data) throws IOException {
+        File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            outputStream.write(data);
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
 }
@@ -22,8 +22,13 @@ package com.github.se_bastiaan.torrentstream.utils;
 import android.os.Handler;
 import android.os.Looper;
 
+import java.util.concurrent.Executor;
+
 public final class ThreadUtils {
 
+    private static final Executor UI_THREAD_EXECUTOR = ThreadUtils::runOnUiThread;
+    private static volatile Handler uiThreadHandler;
+
     private ThreadUtils() throws InstantiationException {
         throw new InstantiationException("This class is not created for instantiation");
     }
@@ -35,8 +40,31 @@ public final class ThreadUtils {
      */
     public static void runOnUiThread(Runnable runnable) {
         Thread uiThread = Looper.getMainLooper().getThread();
-        if (Thread.currentThread() != uiThread) new Handler(Looper.getMainLooper()).post(runnable);
+        if (Thread.currentThread() != uiThread) getUiThreadHandler().post(runnable);
         else runnable.run();
     }
 
+    /**
+     * Get an {@link Executor} that executes on the ui thread, see {@link #runOnUiThread(Runnable)}.
+     *
+     * @return {@link Executor}
+     */
+    public static Executor getUiThreadExecutor() {
+        return UI_THREAD_EXECUTOR;
+    }
+
+    private static Handler getUiThreadHandler() {
+        Handler handler = uiThreadHandler;
+        if (handler == null) {
+            synchronized (ThreadUtils.class) {
+                handler = uiThreadHandler;
+                if (handler == null) {
+                    handler = new Handler(Looper.getMainLooper());
+                    uiThreadHandler = handler;
+                }
+            }
+        }
+        return handler;
+    }
+
 }
\ No newline at end of file